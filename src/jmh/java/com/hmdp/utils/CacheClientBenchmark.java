@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存读写的序列化开销，redis为内存实现
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheClientBenchmark {
+    private CacheClient cacheClient;
+    private Shop shop;
+
+    @Setup
+    public void setup() {
+        //只测缓存命中和写入，不会用到分布式锁
+        FakeStringRedisTemplate redis = new FakeStringRedisTemplate();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cacheClient = new CacheClient(redis, null, registry, new HotKeyDetector(redis, registry, 4, 1000, 5000, 5),
+                new ExecutorRegistry(registry, new StandardEnvironment()));
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        cacheClient.set(RedisConstants.CACHE_SHOP_KEY + 1, shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        cacheClient.setWithEarlyRefresh(RedisConstants.CACHE_SHOP_KEY + 4, shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, 5);
+    }
+
+    @Benchmark
+    public void set() {
+        cacheClient.set(RedisConstants.CACHE_SHOP_KEY + 2, shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void setWithLogicalExpire() {
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + 3, shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop queryHit() {
+        return cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class,
+                id -> null, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop queryEarlyRefreshHit() {
+        return cacheClient.queryWithEarlyRefresh(RedisConstants.CACHE_SHOP_KEY, 4L, Shop.class,
+                id -> null, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基准测试用的内存版StringRedisTemplate，只实现被测代码用到的opsForValue的get/set/increment，
+ * 让测量结果只包含工具类自身的开销，不含网络往返
+ */
+public class FakeStringRedisTemplate extends StringRedisTemplate {
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ValueOperations<String, String> valueOps;
+
+    @SuppressWarnings("unchecked")
+    public FakeStringRedisTemplate() {
+        valueOps = (ValueOperations<String, String>) Proxy.newProxyInstance(
+                ValueOperations.class.getClassLoader(),
+                new Class<?>[]{ValueOperations.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "get":
+                            return values.get((String) args[0]);
+                        case "set":
+                            //忽略过期时间
+                            values.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "increment":
+                            long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1L;
+                            return counters.computeIfAbsent((String) args[0], k -> new AtomicLong()).addAndGet(delta);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Override
+    public ValueOperations<String, String> opsForValue() {
+        return valueOps;
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片发送到本地socket的吞吐：零拷贝transferTo、缓存的直接内存、普通的流拷贝
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImageServerBenchmark {
+    @Param({"16384", "1048576"})
+    private int size;
+
+    private Path file;
+    private ByteBuffer cached;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private Thread drainer;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] payload = new byte[size];
+        ThreadLocalRandom.current().nextBytes(payload);
+        file = Files.createTempFile("hmdp-img", ".jpg");
+        Files.write(file, payload);
+        cached = ByteBuffer.allocateDirect(size);
+        cached.put(payload).flip();
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        // 对端只读取并丢弃数据，模拟客户端
+        drainer = new Thread(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (peer.read(sink) != -1) {
+                    sink.clear();
+                }
+            } catch (IOException ignored) {
+                // 连接关闭
+            }
+        }, "drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        client.close();
+        drainer.join(1000);
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void transferTo() throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ImageServer.transfer(in, 0, size, client);
+        }
+    }
+
+    @Benchmark
+    public void directBuffer() throws IOException {
+        ByteBuffer slice = cached.duplicate();
+        while (slice.hasRemaining()) {
+            client.write(slice);
+        }
+    }
+
+    @Benchmark
+    public void streamCopy() throws IOException {
+        OutputStream out = Channels.newOutputStream(client);
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 上传内容流式写入临时文件并计算SHA-256，不涉及redis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageStorageBenchmark {
+    @Param({"16384", "1048576"})
+    private int size;
+
+    private byte[] payload;
+    private Path root;
+    private ImageStorage imageStorage;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[size];
+        ThreadLocalRandom.current().nextBytes(payload);
+        root = Files.createTempDirectory("hmdp-imgs");
+        imageStorage = new ImageStorage(null, root.toString(), Long.MAX_VALUE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String stage() throws IOException {
+        ImageStorage.Staged staged = imageStorage.stage(new ByteArrayInputStream(payload));
+        Files.delete(staged.getPath());
+        return staged.getHash();
+    }
+}
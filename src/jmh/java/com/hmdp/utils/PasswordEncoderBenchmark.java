@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PasswordEncoderBenchmark {
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        encoded = PasswordEncoder.encode("123456");
+    }
+
+    @Benchmark
+    public Boolean matches() {
+        return PasswordEncoder.matches(encoded, "123456");
+    }
+
+    @Benchmark
+    public Boolean mismatches() {
+        return PasswordEncoder.matches(encoded, "654321");
+    }
+}
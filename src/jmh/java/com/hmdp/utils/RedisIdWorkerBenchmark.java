@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RedisIdWorkerBenchmark {
+    private RedisIdWorker redisIdWorker;
+
+    @Setup
+    public void setup() {
+        redisIdWorker = new RedisIdWorker(new FakeStringRedisTemplate());
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIdContended() {
+        return redisIdWorker.nextId("order");
+    }
+}
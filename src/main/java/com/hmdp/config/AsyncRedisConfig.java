@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 读接口异步查询redis使用的连接。
+ * lettuce的单个连接是线程安全的，命令在连接上多路复用，不占用连接池，也不阻塞调用线程
+ */
+@Configuration
+public class AsyncRedisConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(ClientResources clientResources, RedisProperties properties) {
+        RedisURI uri = RedisURI.builder()
+                .withHost(properties.getHost())
+                .withPort(properties.getPort())
+                .withDatabase(properties.getDatabase())
+                .build();
+        if (properties.getPassword() != null) {
+            uri.setPassword(properties.getPassword());
+        }
+        if (properties.getTimeout() != null) {
+            uri.setTimeout(properties.getTimeout());
+        }
+        return RedisClient.create(clientResources, uri);
+    }
+
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, String> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect();
+    }
+}
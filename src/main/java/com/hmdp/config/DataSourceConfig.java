@@ -0,0 +1,86 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.ReadYourWritesInterceptor;
+import com.hmdp.utils.ReplicaHealthChecker;
+import com.hmdp.utils.RoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读写分离，配置了hmdp.datasource.replicas时生效，否则使用spring boot默认的单数据源。
+ * 主库沿用spring.datasource的配置，从库连接池参数和主库一致
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "hmdp.datasource.replicas[0]", name = "url")
+public class DataSourceConfig {
+
+    @Bean
+    public RoutingDataSource routingDataSource(DataSourceProperties properties, Environment environment,
+                                               MeterRegistry meterRegistry,
+                                               @Value("${hmdp.datasource.read-your-writes-millis:5000}") long rywMillis) {
+        Binder binder = Binder.get(environment);
+        DataSource primary = createPool(properties, "primary", false, binder, meterRegistry);
+        List<DataSourceProperties> replicaProperties = binder
+                .bind("hmdp.datasource.replicas", Bindable.listOf(DataSourceProperties.class))
+                .get();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaProperties.size(); i++) {
+            DataSourceProperties replica = replicaProperties.get(i);
+            String name = replica.getName() != null ? replica.getName() : "replica-" + i;
+            replicas.put(name, createPool(replica, name, true, binder, meterRegistry));
+        }
+        return new RoutingDataSource(primary, replicas, meterRegistry, rywMillis);
+    }
+
+    /**
+     * 延迟到执行第一条sql时才获取真实连接，这时已经能拿到事务的只读标记
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(RoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    public ReplicaHealthChecker replicaHealthChecker(RoutingDataSource routingDataSource, MeterRegistry meterRegistry,
+                                                     @Value("${hmdp.datasource.max-lag-millis:3000}") long maxLagMillis) {
+        return new ReplicaHealthChecker(routingDataSource, meterRegistry, maxLagMillis);
+    }
+
+    /**
+     * mybatis-plus会自动注册容器中的Interceptor
+     */
+    @Bean
+    public ReadYourWritesInterceptor readYourWritesInterceptor(RoutingDataSource routingDataSource) {
+        return new ReadYourWritesInterceptor(routingDataSource);
+    }
+
+    private DataSource createPool(DataSourceProperties properties, String name, boolean readOnly,
+                                  Binder binder, MeterRegistry meterRegistry) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName(name);
+        dataSource.setReadOnly(readOnly);
+        //连接池不是容器中的bean，需要自己注册hikaricp指标
+        dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return dataSource;
+    }
+}
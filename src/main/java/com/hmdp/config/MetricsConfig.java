@@ -0,0 +1,43 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.MybatisMetricsInterceptor;
+import com.hmdp.utils.RedisCommandLatencyRecorder;
+import com.hmdp.utils.RedisPoolMetrics;
+import io.lettuce.core.event.DefaultEventPublisherOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 指标采集，统一通过管理端口（management.server.port）上的/actuator/prometheus导出。
+ * 接口耗时由actuator的http.server.requests记录，数据库连接池由hikaricp指标记录
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * 替换默认的ClientResources，记录每条redis命令的耗时
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources lettuceClientResources(MeterRegistry meterRegistry) {
+        return DefaultClientResources.builder()
+                .commandLatencyCollector(new RedisCommandLatencyRecorder(meterRegistry))
+                .commandLatencyPublisherOptions(DefaultEventPublisherOptions.disabled())
+                .build();
+    }
+
+    @Bean
+    public RedisPoolMetrics redisPoolMetrics() {
+        return new RedisPoolMetrics();
+    }
+
+    /**
+     * mybatis-plus会自动注册容器中的Interceptor
+     */
+    @Bean
+    public MybatisMetricsInterceptor mybatisMetricsInterceptor(MeterRegistry meterRegistry) {
+        return new MybatisMetricsInterceptor(meterRegistry);
+    }
+}
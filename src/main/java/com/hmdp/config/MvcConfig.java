@@ -1,10 +1,10 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RedisBatchClient;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,7 +13,7 @@ import javax.annotation.Resource;
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisBatchClient redisBatchClient;
 
 
     @Override
@@ -25,10 +25,12 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/voucher/**",
                         "/shop-type/**",
-                        "/upload/**",
-                        "/blog/hot"
+                        "/blog/hot",
+                        "/blog-comments/of/**",
+                        "/imgs/**"
                 ).order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
-                .addPathPatterns("/**").order(0);
+        // 图片请求不携带token，也不需要刷新登录状态
+        registry.addInterceptor(new RefreshTokenInterceptor(redisBatchClient))
+                .addPathPatterns("/**").excludePathPatterns("/imgs/**").order(0);
     }
 }
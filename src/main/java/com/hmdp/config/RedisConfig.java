@@ -0,0 +1,27 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillScheduler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SeckillScheduler seckillScheduler,
+                                                                       HotKeyDetector hotKeyDetector) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 秒杀券售罄/恢复的状态同步
+        container.addMessageListener(seckillScheduler, new ChannelTopic(RedisConstants.SECKILL_STATE_CHANNEL));
+        // 热点key本地缓存的失效广播
+        container.addMessageListener(hotKeyDetector, new ChannelTopic(RedisConstants.CACHE_EVICT_CHANNEL));
+        return container;
+    }
+}
@@ -1,17 +1,31 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import javax.annotation.Resource;
 
 @Slf4j
 @RestControllerAdvice
 public class WebExceptionAdvice {
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public Result handleMaxUploadSizeExceededException(MaxUploadSizeExceededException e) {
+        log.debug(e.getMessage());
+        return Result.fail("上传文件过大");
+    }
 
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
+        //按异常类型计数，异常类型是有限的
+        meterRegistry.counter("http.server.exceptions", "exception", e.getClass().getSimpleName()).increment();
         return Result.fail("服务器异常");
     }
 }
@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -16,5 +19,38 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
+    @Resource
+    private IBlogCommentsService blogCommentsService;
 
+    /**
+     * 发表评论，answerId为空时是一级评论，否则是对该评论的回复
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 滚动分页查询笔记的一级评论，每条评论内联前几条回复
+     * @param lastId 上一页最后一条评论的时间戳，第一页不传
+     * @param offset 上一页中与最小时间戳相同的评论数
+     */
+    @GetMapping("/of/blog/{blogId}")
+    public Result queryBlogComments(
+            @PathVariable("blogId") Long blogId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogCommentsService.queryBlogComments(blogId, lastId, offset);
+    }
+
+    /**
+     * 滚动分页查询一级评论下的回复
+     */
+    @GetMapping("/of/comment/{commentId}")
+    public Result queryReplies(
+            @PathVariable("commentId") Long commentId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogCommentsService.queryReplies(commentId, lastId, offset);
+    }
 }
@@ -4,16 +4,24 @@ package com.hmdp.controller;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.UserProfileDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.CounterService;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.ImageResizer;
+import com.hmdp.utils.ImageVariant;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -31,6 +39,12 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private CounterService counterService;
+    @Resource
+    private ImageResizer imageResizer;
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -45,9 +59,8 @@ public class BlogController {
 
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
-        // 修改点赞数量
-        blogService.update()
-                .setSql("liked = liked + 1").eq("id", id).update();
+        // 修改点赞数量，累加后批量写回
+        counterService.increment(CounterType.BLOG_LIKED, id, 1);
         return Result.ok();
     }
 
@@ -60,24 +73,41 @@ public class BlogController {
                 .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
+        records.forEach(this::fillImageVariants);
         return Result.ok(records);
     }
 
     @GetMapping("/hot")
-    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public CompletableFuture<Result> queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        // 查询数据库的部分在回源线程池中执行，不占用tomcat线程
+        return asyncCacheClient.supplyBlocking(() -> hotBlogs(current));
+    }
+
+    private Result hotBlogs(Integer current) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
                 .orderByDesc("liked")
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        // 批量查询用户，相同作者只查一次
+        Map<Long, UserProfileDTO> profiles = userService.queryUserProfiles(
+                records.stream().map(Blog::getUserId).collect(Collectors.toSet()));
         records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
+            fillImageVariants(blog);
+            UserProfileDTO profile = profiles.get(blog.getUserId());
+            if (profile == null) {
+                return;
+            }
+            blog.setName(profile.getNickName());
+            blog.setIcon(profile.getIcon());
         });
         return Result.ok(records);
     }
+
+    private void fillImageVariants(Blog blog) {
+        // 列表返回各规格的地址，前端按需选用
+        blog.setThumbnails(imageResizer.variantsOf(blog.getImages(), ImageVariant.THUMB));
+        blog.setMediumImages(imageResizer.variantsOf(blog.getImages(), ImageVariant.MEDIUM));
+    }
 }
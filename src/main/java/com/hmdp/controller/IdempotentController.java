@@ -0,0 +1,22 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.Result;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/idempotent")
+public class IdempotentController {
+
+    /**
+     * 获取幂等key，客户端在重试时通过Idempotency-Key请求头带上同一个key，
+     * 也可以由客户端自行生成
+     * @return 幂等key
+     */
+    @GetMapping("token")
+    public Result token() {
+        return Result.ok(UUID.randomUUID().toString(true));
+    }
+}
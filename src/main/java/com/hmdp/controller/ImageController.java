@@ -0,0 +1,29 @@
+package com.hmdp.controller;
+
+import com.hmdp.utils.ImageServer;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 由应用直接提供上传的图片，单体部署时不再依赖nginx
+ */
+@RestController
+public class ImageController {
+
+    @Resource
+    private ImageServer imageServer;
+
+    @GetMapping(SystemConstants.IMAGE_URL_PREFIX + "/**")
+    public void image(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 请求路径去掉前缀即为存储中的文件名
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        imageServer.serve(path.substring(SystemConstants.IMAGE_URL_PREFIX.length()), request, response);
+    }
+}
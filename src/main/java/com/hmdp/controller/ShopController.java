@@ -6,11 +6,16 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.ImageResizer;
+import com.hmdp.utils.ImageVariant;
+import com.hmdp.utils.ReadOnly;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  * 前端控制器
@@ -25,6 +30,8 @@ public class ShopController {
 
     @Resource
     public IShopService shopService;
+    @Resource
+    private ImageResizer imageResizer;
 
     /**
      * 根据id查询商铺信息
@@ -32,9 +39,9 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return shopService.queryById(id);
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id) {
+        // 异步返回，等待redis期间不占用tomcat线程
+        return shopService.queryByIdAsync(id);
     }
 
     /**
@@ -68,6 +75,7 @@ public class ShopController {
      * @param current 页码
      * @return 商铺列表
      */
+    @ReadOnly
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
@@ -77,6 +85,7 @@ public class ShopController {
         Page<Shop> page = shopService.query()
                 .eq("type_id", typeId)
                 .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        page.getRecords().forEach(this::fillImageVariants);
         // 返回数据
         return Result.ok(page.getRecords());
     }
@@ -87,6 +96,7 @@ public class ShopController {
      * @param current 页码
      * @return 商铺列表
      */
+    @ReadOnly
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
@@ -96,7 +106,13 @@ public class ShopController {
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        page.getRecords().forEach(this::fillImageVariants);
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    private void fillImageVariants(Shop shop) {
+        shop.setThumbnails(imageResizer.variantsOf(shop.getImages(), ImageVariant.THUMB));
+        shop.setMediumImages(imageResizer.variantsOf(shop.getImages(), ImageVariant.MEDIUM));
+    }
 }
@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,8 +27,8 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
+    public CompletableFuture<Result> queryTypeList() {
 
-        return typeService.queryTypeList();
+        return typeService.queryTypeListAsync();
     }
 }
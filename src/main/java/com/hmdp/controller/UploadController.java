@@ -1,33 +1,44 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ImageResizer;
+import com.hmdp.utils.ImageStorage;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.annotation.Resource;
 import java.io.IOException;
-import java.util.UUID;
+import java.io.InputStream;
 
 @Slf4j
 @RestController
 @RequestMapping("upload")
 public class UploadController {
 
+    @Resource
+    private ImageStorage imageStorage;
+    @Resource
+    private ImageResizer imageResizer;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
-        try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+        // 超过大小限制的直接拒绝，不再读取内容
+        if (image.getSize() > imageStorage.getMaxBytes()) {
+            return tooLarge();
+        }
+        try (InputStream in = image.getInputStream()) {
+            // 边读边计算哈希写入存储，相同内容返回已有的文件名
+            String fileName = imageStorage.store(in, image.getOriginalFilename(), UserHolder.getUser().getId());
+            if (fileName == null) {
+                // 声明的大小不可信，实际读取时超过了限制
+                return tooLarge();
+            }
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
+            // 后台生成缩略图和中图
+            imageResizer.resizeAsync(fileName);
             return Result.ok(fileName);
         } catch (IOException e) {
             throw new RuntimeException("文件上传失败", e);
@@ -36,28 +47,19 @@ public class UploadController {
 
     @GetMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
+        if (!imageStorage.isValidName(filename)) {
             return Result.fail("错误的文件名称");
         }
-        FileUtil.del(file);
+        try {
+            // 释放当前用户的引用，没有其他引用时删除文件
+            imageStorage.release(filename, UserHolder.getUser().getId());
+        } catch (IOException e) {
+            throw new RuntimeException("文件删除失败", e);
+        }
         return Result.ok();
     }
 
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
+    private Result tooLarge() {
+        return Result.fail("图片大小不能超过" + imageStorage.getMaxBytes() / 1024 + "KB");
     }
 }
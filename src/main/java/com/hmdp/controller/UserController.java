@@ -1,11 +1,12 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.UserProfileDTO;
 import com.hmdp.entity.UserInfo;
-import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -30,9 +31,6 @@ public class UserController {
     @Resource
     private IUserService userService;
 
-    @Resource
-    private IUserInfoService userInfoService;
-
     /**
      * 发送手机验证码
      */
@@ -70,14 +68,14 @@ public class UserController {
 
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
-        // 查询详情
-        UserInfo info = userInfoService.getById(userId);
-        if (info == null) {
+        // 查询详情，走用户资料缓存
+        UserProfileDTO profile = userService.queryUserProfile(userId);
+        if (profile == null || !Boolean.TRUE.equals(profile.getHasInfo())) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
         }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
+        UserInfo info = BeanUtil.copyProperties(profile, UserInfo.class);
+        info.setUserId(profile.getId());
         // 返回
         return Result.ok(info);
     }
@@ -8,6 +8,8 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  前端控制器
@@ -30,7 +32,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -51,7 +53,7 @@ public class VoucherController {
      * @return 优惠券列表
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public CompletableFuture<Result> queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
+       return voucherService.queryVoucherOfShopAsync(shopId);
     }
 }
@@ -3,7 +3,9 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.Idempotent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -26,9 +28,30 @@ public class VoucherOrderController {
 
 
 
+    @Idempotent
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
 
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询订单状态，供下单后轮询
+     * @param orderId 订单id
+     * @return 订单状态
+     */
+    @GetMapping("{id}")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    /**
+     * 查询当前用户购买某张券的订单id
+     * @param voucherId 优惠券id
+     * @return 订单id，没有购买过返回空
+     */
+    @GetMapping("of/voucher/{voucherId}")
+    public Result queryOrderOfVoucher(@PathVariable("voucherId") Long voucherId) {
+        return voucherOrderService.queryOrderOfVoucher(voucherId);
+    }
 }
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class CommentDTO {
+    private Long id;
+    private Long blogId;
+    private Long parentId;
+    private Long answerId;
+    private Long userId;
+    private String nickName;
+    private String icon;
+    private String content;
+    private Integer liked;
+    private LocalDateTime createTime;
+    /**
+     * 回复总数，只有一级评论有
+     */
+    private Long replyCount;
+    /**
+     * 内联的前几条回复，只有一级评论有
+     */
+    private List<CommentDTO> replies;
+}
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 订单状态缓存，下单后客户端轮询只需要一次redis GET
+ */
+@Data
+public class OrderStatusDTO {
+    private Long id;
+    private Long userId;
+    private Long voucherId;
+    /**
+     * 订单状态，1：未支付；2：已支付；3：已核销；4：已取消；5：退款中；6：已退款
+     */
+    private Integer status;
+}
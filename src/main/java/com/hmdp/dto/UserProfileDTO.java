@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * 用户资料的精简投影，tb_user的展示字段加上tb_user_info中的计数等字段，
+ * 以JSON形式缓存在Redis中，供博客、评论等列表批量填充作者信息
+ */
+@Data
+public class UserProfileDTO {
+    private Long id;
+    private String nickName;
+    private String icon;
+    private String city;
+    private String introduce;
+    private Boolean gender;
+    private Integer fans;
+    private Integer followee;
+    private Integer credits;
+    private Boolean level;
+    private LocalDate birthday;
+    /**
+     * tb_user_info中是否有记录，没有时详情字段都为空
+     */
+    private Boolean hasInfo;
+}
@@ -48,6 +48,18 @@ public class Shop implements Serializable {
      */
     private String images;
 
+    /**
+     * 缩略图，和images一一对应，未生成的为原图
+     */
+    @TableField(exist = false)
+    private String thumbnails;
+
+    /**
+     * 中图，和images一一对应，未生成的为原图
+     */
+    @TableField(exist = false)
+    private String mediumImages;
+
     /**
      * 商圈，例如陆家嘴
      */
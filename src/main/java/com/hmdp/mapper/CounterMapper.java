@@ -0,0 +1,18 @@
+package com.hmdp.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
+
+/**
+ * 计数写回
+ */
+public interface CounterMapper {
+
+    /**
+     * 一条语句批量累加多行的计数，结果小于0时置为0
+     * @param deltas id到增量的映射
+     */
+    int addDeltas(@Param("table") String table, @Param("idColumn") String idColumn,
+                  @Param("column") String column, @Param("deltas") Map<Long, Long> deltas);
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    Result saveComment(BlogComments comment);
+
+    Result queryBlogComments(Long blogId, Long max, Integer offset);
+
+    Result queryReplies(Long commentId, Long max, Integer offset);
 }
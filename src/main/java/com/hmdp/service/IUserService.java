@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserProfileDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -23,4 +26,13 @@ public interface IUserService extends IService<User> {
 
 
     Result logout(String authorization);
+
+    UserProfileDTO queryUserProfile(Long id);
+
+    Map<Long, UserProfileDTO> queryUserProfiles(Collection<Long> ids);
+
+    /**
+     * 用户或用户详情变更后批量清除资料缓存，在事务提交后执行，下次读取时从数据库重新加载
+     */
+    void evictUserProfiles(Collection<Long> ids);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +19,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     Result createVoucherOrder(Long voucherId);
+
+    void cancelUnpaidOrders(Collection<Long> orderIds);
+
+    Result queryOrderStatus(Long orderId);
+
+    Result queryOrderOfVoucher(Long voucherId);
 }
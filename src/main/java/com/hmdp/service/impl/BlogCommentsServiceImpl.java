@@ -1,20 +1,356 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.CommentDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserProfileDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 评论索引保存在redis中：每篇笔记一个一级评论id的ZSET，每条一级评论一个回复id的ZSET，score为发表时间。
+ * 索引中的哨兵成员表示已经从数据库完整加载过，索引过期后在读取时重建。
+ * 评论内容单独缓存，一页评论及其内联回复通过一次MGET读取。
+ * 笔记的评论数和新评论在同一个管道中累加，由CounterService写回
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
+    /**
+     * 索引已加载的标记，score为-1，不会出现在按时间的范围查询中
+     */
+    private static final String SENTINEL = "-1";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IUserService userService;
+
+    @Override
+    @Transactional
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空");
+        }
+        long parentId = 0L;
+        long answerId = comment.getAnswerId() == null ? 0L : comment.getAnswerId();
+        if (answerId != 0) {
+            //回复评论，回复的回复也归到所属的一级评论下
+            BlogComments answer = getById(answerId);
+            if (answer == null || !answer.getBlogId().equals(comment.getBlogId())) {
+                return Result.fail("评论不存在");
+            }
+            parentId = answer.getParentId() == 0 ? answer.getId() : answer.getParentId();
+        } else if (blogService.getById(comment.getBlogId()) == null) {
+            return Result.fail("笔记不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        comment.setId(null)
+                .setUserId(UserHolder.getUser().getId())
+                .setParentId(parentId)
+                .setAnswerId(answerId)
+                .setLiked(0)
+                .setStatus(false)
+                .setCreateTime(now)
+                .setUpdateTime(now);
+        save(comment);
+        //提交后写入索引和评论缓存，并累加笔记的评论数
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                indexComment(comment);
+            }
+        });
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryBlogComments(Long blogId, Long max, Integer offset) {
+        List<ZSetOperations.TypedTuple<String>> tuples = scroll(RedisConstants.BLOG_COMMENTS_KEY + blogId,
+                max, offset, SystemConstants.COMMENT_PAGE_SIZE, () -> loadBlogIndex(blogId));
+        List<Long> ids = toIds(tuples);
+        //查询每条评论的前几条回复和回复数
+        Map<Long, List<Long>> replyIds = new HashMap<>();
+        Map<Long, Long> replyCounts = new HashMap<>();
+        queryFirstReplies(ids, replyIds, replyCounts);
+        //一次读取评论和回复的内容
+        Set<Long> allIds = new LinkedHashSet<>(ids);
+        replyIds.values().forEach(allIds::addAll);
+        Map<Long, BlogComments> comments = queryComments(allIds);
+        Map<Long, UserProfileDTO> profiles = userService.queryUserProfiles(
+                comments.values().stream().map(BlogComments::getUserId).collect(Collectors.toSet()));
+
+        List<CommentDTO> list = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            CommentDTO dto = toDTO(comments.get(id), profiles);
+            if (dto == null) {
+                continue;
+            }
+            dto.setReplyCount(replyCounts.getOrDefault(id, 0L));
+            dto.setReplies(replyIds.getOrDefault(id, Collections.emptyList()).stream()
+                    .map(replyId -> toDTO(comments.get(replyId), profiles))
+                    .filter(r -> r != null)
+                    .collect(Collectors.toList()));
+            list.add(dto);
+        }
+        return Result.ok(toScrollResult(list, tuples, max, offset));
+    }
+
+    @Override
+    public Result queryReplies(Long commentId, Long max, Integer offset) {
+        List<ZSetOperations.TypedTuple<String>> tuples = scroll(RedisConstants.COMMENT_REPLIES_KEY + commentId,
+                max, offset, SystemConstants.COMMENT_PAGE_SIZE,
+                () -> loadReplyIndexes(Collections.singletonList(commentId)));
+        List<Long> ids = toIds(tuples);
+        Map<Long, BlogComments> comments = queryComments(ids);
+        Map<Long, UserProfileDTO> profiles = userService.queryUserProfiles(
+                comments.values().stream().map(BlogComments::getUserId).collect(Collectors.toSet()));
+        List<CommentDTO> list = ids.stream()
+                .map(id -> toDTO(comments.get(id), profiles))
+                .filter(dto -> dto != null)
+                .collect(Collectors.toList());
+        return Result.ok(toScrollResult(list, tuples, max, offset));
+    }
+
+    private void indexComment(BlogComments comment) {
+        String indexKey = comment.getParentId() == 0
+                ? RedisConstants.BLOG_COMMENTS_KEY + comment.getBlogId()
+                : RedisConstants.COMMENT_REPLIES_KEY + comment.getParentId();
+        String json = JSONUtil.toJsonStr(comment);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            //索引不存在时只会创建一个没有哨兵的ZSET，读取时仍会从数据库重建
+            conn.zAdd(indexKey, toMillis(comment.getCreateTime()), comment.getId().toString());
+            conn.setEx(RedisConstants.CACHE_COMMENT_KEY + comment.getId(),
+                    TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_COMMENT_TTL), json);
+            conn.hIncrBy(CounterType.BLOG_COMMENTS.getKey(), comment.getBlogId().toString(), 1);
+            return null;
+        });
+    }
+
+    /**
+     * 按时间倒序滚动查询索引，索引未加载时从数据库加载后再查一次
+     */
+    @SuppressWarnings("unchecked")
+    private List<ZSetOperations.TypedTuple<String>> scroll(String key, Long max, Integer offset, int count, Runnable loader) {
+        long maxScore = max == null ? System.currentTimeMillis() : max;
+        for (int i = 0; i < 2; i++) {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zScore(key, SENTINEL);
+                conn.zRevRangeByScoreWithScores(key, 0, maxScore, offset, count);
+                return null;
+            });
+            if (results.get(0) != null) {
+                Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) results.get(1);
+                return tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+            }
+            loader.run();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 一次管道查询多条一级评论的前几条回复和回复数，索引未加载的评论批量从数据库加载
+     */
+    @SuppressWarnings("unchecked")
+    private void queryFirstReplies(List<Long> ids, Map<Long, List<Long>> replyIds, Map<Long, Long> replyCounts) {
+        List<Long> pending = ids;
+        for (int round = 0; round < 2 && !pending.isEmpty(); round++) {
+            List<Long> query = pending;
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long id : query) {
+                    String key = RedisConstants.COMMENT_REPLIES_KEY + id;
+                    conn.zScore(key, SENTINEL);
+                    conn.zRevRangeByScore(key, 0, Double.MAX_VALUE, 0, SystemConstants.COMMENT_INLINE_REPLIES);
+                    conn.zCard(key);
+                }
+                return null;
+            });
+            List<Long> missing = new ArrayList<>();
+            for (int i = 0; i < query.size(); i++) {
+                Long id = query.get(i);
+                if (results.get(i * 3) == null) {
+                    missing.add(id);
+                    continue;
+                }
+                Set<String> members = (Set<String>) results.get(i * 3 + 1);
+                replyIds.put(id, members.stream().map(Long::valueOf).collect(Collectors.toList()));
+                //去掉哨兵
+                replyCounts.put(id, ((Long) results.get(i * 3 + 2)) - 1);
+            }
+            if (!missing.isEmpty()) {
+                loadReplyIndexes(missing);
+            }
+            pending = missing;
+        }
+    }
+
+    /**
+     * 批量读取评论内容，缓存未命中的从数据库读取后写回
+     */
+    private Map<Long, BlogComments> queryComments(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Long> idList = new ArrayList<>(ids);
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(idList.stream()
+                .map(id -> RedisConstants.CACHE_COMMENT_KEY + id)
+                .collect(Collectors.toList()));
+        Map<Long, BlogComments> result = new HashMap<>(idList.size() * 2);
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                result.put(idList.get(i), JSONUtil.toBean(json, BlogComments.class));
+            } else {
+                missing.add(idList.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        List<BlogComments> loaded = listByIds(missing);
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_COMMENT_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (BlogComments comment : loaded) {
+                conn.setEx(RedisConstants.CACHE_COMMENT_KEY + comment.getId(), ttl, JSONUtil.toJsonStr(comment));
+            }
+            return null;
+        });
+        loaded.forEach(comment -> result.put(comment.getId(), comment));
+        return result;
+    }
+
+    private void loadBlogIndex(Long blogId) {
+        List<BlogComments> comments = query()
+                .select("id", "create_time")
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .list();
+        writeIndexes(Collections.singletonMap(RedisConstants.BLOG_COMMENTS_KEY + blogId, comments));
+    }
+
+    private void loadReplyIndexes(Collection<Long> parentIds) {
+        Map<Long, List<BlogComments>> byParent = query()
+                .select("id", "parent_id", "create_time")
+                .in("parent_id", parentIds)
+                .list()
+                .stream()
+                .collect(Collectors.groupingBy(BlogComments::getParentId));
+        Map<String, List<BlogComments>> indexes = new HashMap<>();
+        for (Long parentId : new HashSet<>(parentIds)) {
+            indexes.put(RedisConstants.COMMENT_REPLIES_KEY + parentId,
+                    byParent.getOrDefault(parentId, Collections.emptyList()));
+        }
+        writeIndexes(indexes);
+    }
+
+    /**
+     * 写入完整的索引和哨兵，和新评论的写入并发时ZADD是幂等的
+     */
+    private void writeIndexes(Map<String, List<BlogComments>> indexes) {
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.COMMENT_INDEX_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            indexes.forEach((key, comments) -> {
+                conn.zAdd(key, -1, SENTINEL);
+                for (BlogComments comment : comments) {
+                    conn.zAdd(key, toMillis(comment.getCreateTime()), comment.getId().toString());
+                }
+                conn.expire(key, ttl);
+            });
+            return null;
+        });
+    }
+
+    private static List<Long> toIds(List<ZSetOperations.TypedTuple<String>> tuples) {
+        return tuples.stream().map(t -> Long.valueOf(t.getValue())).collect(Collectors.toList());
+    }
+
+    /**
+     * 计算下一页的游标：本页最小的时间戳和本页中等于该时间戳的条数
+     */
+    private static ScrollResult toScrollResult(List<CommentDTO> list, List<ZSetOperations.TypedTuple<String>> tuples,
+                                               Long max, Integer offset) {
+        long minTime = 0;
+        int os = 1;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(list);
+        r.setMinTime(minTime);
+        //本页最小时间戳和上一页相同时，需要在上一页的偏移量上继续累加
+        r.setOffset(max != null && minTime == max ? os + offset : os);
+        return r;
+    }
+
+    private static CommentDTO toDTO(BlogComments comment, Map<Long, UserProfileDTO> profiles) {
+        if (comment == null) {
+            return null;
+        }
+        CommentDTO dto = BeanUtil.copyProperties(comment, CommentDTO.class);
+        UserProfileDTO profile = profiles.get(comment.getUserId());
+        if (profile != null) {
+            dto.setNickName(profile.getNickName());
+            dto.setIcon(profile.getIcon());
+        }
+        return dto;
+    }
 
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
@@ -7,12 +7,14 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncCacheClient;
 import com.hmdp.utils.RedisConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,11 +28,13 @@ import java.util.List;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private AsyncCacheClient asyncCacheClient;
 
 
     public Result queryTypeList() {
         //查询redis缓存
-        String shopTypeJson = stringRedisTemplate.opsForValue().get("cache:shoptype:list");
+        String shopTypeJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_KEY);
         //判断是否存在
         if (StrUtil.isNotBlank(shopTypeJson)) {
             //存在直接返回
@@ -44,8 +48,18 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             return Result.fail("店铺类型不存在");
         }
         //数据库中存在，写入redis
-        stringRedisTemplate.opsForValue().set("cache:shoptype:list", JSONUtil.toJsonStr(typeList));
+        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(typeList));
         //返回
         return Result.ok(typeList);
     }
+
+    public CompletableFuture<Result> queryTypeListAsync() {
+        return asyncCacheClient.get(RedisConstants.CACHE_SHOP_TYPE_KEY).thenCompose(shopTypeJson -> {
+            if (StrUtil.isNotBlank(shopTypeJson)) {
+                return CompletableFuture.completedFuture(Result.ok(JSONUtil.toList(shopTypeJson, ShopType.class)));
+            }
+            //未命中时按同步逻辑查询数据库并写入缓存
+            return asyncCacheClient.supplyBlocking(this::queryTypeList);
+        });
+    }
 }
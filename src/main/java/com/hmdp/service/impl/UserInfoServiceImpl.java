@@ -3,13 +3,21 @@ package com.hmdp.service.impl;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
+import com.hmdp.service.IUserService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 用户详情是用户资料缓存的一部分，写入后清除对应用户的缓存
  *
  * @author 虎哥
  * @since 2021-12-24
@@ -17,4 +25,49 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public boolean save(UserInfo entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            userService.evictUserProfiles(Collections.singletonList(entity.getUserId()));
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean updateById(UserInfo entity) {
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            userService.evictUserProfiles(Collections.singletonList(entity.getUserId()));
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean saveOrUpdate(UserInfo entity) {
+        boolean saved = super.saveOrUpdate(entity);
+        if (saved) {
+            userService.evictUserProfiles(Collections.singletonList(entity.getUserId()));
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<UserInfo> entityList, int batchSize) {
+        boolean updated = super.updateBatchById(entityList, batchSize);
+        userService.evictUserProfiles(entityList.stream().map(UserInfo::getUserId).collect(Collectors.toList()));
+        return updated;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        if (removed) {
+            userService.evictUserProfiles(Collections.singletonList(Long.valueOf(id.toString())));
+        }
+        return removed;
+    }
 }
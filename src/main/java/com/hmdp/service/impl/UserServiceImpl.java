@@ -4,25 +4,41 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.UserProfileDTO;
 import com.hmdp.entity.User;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.RedisBatchClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
@@ -41,7 +57,13 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private UserMapper userMapper;
     @Autowired
+    private UserInfoMapper userInfoMapper;
+    @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisBatchClient redisBatchClient;
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
 
 
     @Override
@@ -76,26 +98,32 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
         //不存在则创建新用户并登录
         if(user==null) {
-            crateWithPhone(loginForm.getPhone());
+            user = crateWithPhone(loginForm.getPhone());
         }
         //存入Redis
         String token = UUID.randomUUID().toString(true);
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> map = BeanUtil.beanToMap(userDTO,new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldname,fieldvalue)->fieldvalue.toString()));
-        stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY+token,map);
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY+token,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        Map<String, String> map = new HashMap<>();
+        BeanUtil.beanToMap(userDTO, new HashMap<>(), CopyOptions.create().setIgnoreNullValue(true))
+                .forEach((field, value) -> map.put(field, value.toString()));
+        //写入用户和设置过期时间在一次往返中完成
+        String tokenKey = RedisConstants.LOGIN_USER_KEY + token;
+        redisBatchClient.batch()
+                .add(conn -> conn.hMSet(tokenKey, map))
+                .add(conn -> conn.expire(tokenKey, TimeUnit.MINUTES.toSeconds(RedisConstants.LOGIN_USER_TTL)))
+                .execute();
 
         return Result.ok(token);
     }
 
-    private void crateWithPhone(String phone) {
+    private User crateWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         save(user);
+        //新id之前可能被查询过，清掉缓存的空值
+        evictUserProfiles(Collections.singletonList(user.getId()));
+        return user;
     }
 
     @Override
@@ -103,4 +131,100 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         stringRedisTemplate.delete(RedisConstants.LOGIN_USER_KEY+authorization);
         return Result.ok();
     }
+
+    @Override
+    public UserProfileDTO queryUserProfile(Long id) {
+        return queryUserProfiles(Collections.singletonList(id)).get(id);
+    }
+
+    @Override
+    public Map<Long, UserProfileDTO> queryUserProfiles(Collection<Long> ids) {
+        Map<Long, UserProfileDTO> profiles = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return profiles;
+        }
+        //去重，同一批数据中重复的作者只查一次
+        List<Long> idList = ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (idList.isEmpty()) {
+            return profiles;
+        }
+        //一次MGET取回所有缓存
+        List<String> keys = idList.stream().map(id -> RedisConstants.CACHE_USER_KEY + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                profiles.put(idList.get(i), JSONUtil.toBean(json, UserProfileDTO.class));
+            } else if (json == null) {
+                //未命中，需要回源；命中空值则说明用户不存在
+                missIds.add(idList.get(i));
+            }
+        }
+        if (!missIds.isEmpty()) {
+            profiles.putAll(loadUserProfiles(missIds));
+        }
+        return profiles;
+    }
+
+    @Override
+    public void evictUserProfiles(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        String[] keys = ids.stream().filter(Objects::nonNull).distinct()
+                .map(id -> RedisConstants.CACHE_USER_KEY + id).toArray(String[]::new);
+        if (keys.length > 0) {
+            //延迟双删，覆盖提交前后并发读把旧资料写回缓存
+            cacheInvalidator.invalidateAfterCommit(true, keys);
+        }
+    }
+
+    @Override
+    public boolean updateById(User user) {
+        boolean updated = super.updateById(user);
+        if (updated) {
+            evictUserProfiles(Collections.singletonList(user.getId()));
+        }
+        return updated;
+    }
+
+    /**
+     * 批量从数据库加载用户资料并通过pipeline写回redis，不存在的用户写入空值防止穿透
+     */
+    private Map<Long, UserProfileDTO> loadUserProfiles(List<Long> ids) {
+        Map<Long, User> users = userMapper.selectBatchIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        Map<Long, UserInfo> infos = users.isEmpty() ? Collections.emptyMap() :
+                userInfoMapper.selectBatchIds(users.keySet()).stream()
+                        .collect(Collectors.toMap(UserInfo::getUserId, Function.identity()));
+        Map<Long, UserProfileDTO> profiles = new HashMap<>();
+        for (User user : users.values()) {
+            UserProfileDTO profile = new UserProfileDTO();
+            UserInfo info = infos.get(user.getId());
+            if (info != null) {
+                BeanUtil.copyProperties(info, profile);
+            }
+            profile.setHasInfo(info != null);
+            profile.setId(user.getId());
+            profile.setNickName(user.getNickName());
+            profile.setIcon(user.getIcon());
+            profiles.put(user.getId(), profile);
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_USER_TTL);
+        long nullTtl = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                UserProfileDTO profile = profiles.get(id);
+                if (profile == null) {
+                    conn.setEx(RedisConstants.CACHE_USER_KEY + id, nullTtl, "");
+                } else {
+                    conn.setEx(RedisConstants.CACHE_USER_KEY + id, ttl, JSONUtil.toJsonStr(profile));
+                }
+            }
+            return null;
+        });
+        return profiles;
+    }
 }
@@ -1,22 +1,45 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.DelayedTaskHandler;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisDelayQueue;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.SeckillScheduler;
+import com.hmdp.utils.SeckillStatus;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillWindow;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.framework.AopContext;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -26,45 +49,117 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService, DelayedTaskHandler {
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private SeckillScheduler seckillScheduler;
+    @Resource
+    private SeckillStockClient seckillStockClient;
+    @Resource
+    private RedisLockClient redisLockClient;
+    @Resource
+    private RedisDelayQueue redisDelayQueue;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.order.pay-timeout-minutes:15}")
+    private long payTimeoutMinutes;
+
+    //订单索引中表示没有订单的空值，防止缓存穿透
+    private static final String NO_ORDER = "0";
+
+    //秒杀请求的处理结果计数
+    private final Map<String, Counter> seckillOutcomes = new ConcurrentHashMap<>();
 
 
-    @Transactional
     public Result seckillVoucher(Long voucherId) {
-        //查询优惠卷
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        //判断是否未开始或结束
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            return Result.fail("秒杀未开始");
+        //查询本地预热的秒杀窗口
+        SeckillWindow window = seckillScheduler.getWindow(voucherId);
+        if (window == null) {
+            countSeckill("not_preheated");
+            return Result.fail(SeckillStatus.NOT_STARTED.getMessage());
         }
-        if(voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            return Result.fail("秒杀已结束");
+        //未开始、已结束、已售罄的请求直接在本地拒绝
+        SeckillStatus status = window.getStatus();
+        if (status != SeckillStatus.OPEN) {
+            countSeckill(status.name().toLowerCase());
+            return Result.fail(status.getMessage());
         }
-        //在期间内，查询库存并判断
-        if(voucher.getStock()<1){
-            return Result.fail("库存不足");
+        //在redis中判断库存和一人一单
+        Long userId = UserHolder.getUser().getId();
+        int code = seckillStockClient.admit(voucherId, window.getBuckets(), userId);
+        if (code == SeckillStockClient.SOLD_OUT) {
+            countSeckill("sold_out");
+            seckillScheduler.publishSoldOut(voucherId);
+            return Result.fail(SeckillStatus.SOLD_OUT.getMessage());
+        }
+        if (code == SeckillStockClient.DUPLICATE) {
+            countSeckill("duplicate");
+            return Result.fail("不能重复下单");
+        }
+        if (code != SeckillStockClient.ADMITTED) {
+            countSeckill("drained");
+            return Result.fail("库存紧张，请重试");
         }
 
-        synchronized (UserHolder.getUser().getId().toString().intern()) {
-            IVoucherOrderService currentProxy = (IVoucherOrderService) AopContext.currentProxy();
-            return currentProxy.createVoucherOrder(voucherId);
+        Result result = null;
+        //每个请求只记录一个结果
+        String outcome = "order_failed";
+        try {
+            //同一用户的并发请求只放行一个，获取不到锁直接返回，不阻塞线程
+            ILock lock = redisLockClient.getLock(RedisConstants.LOCK_ORDER_KEY + voucherId + ":" + userId);
+            if (!lock.tryLock()) {
+                outcome = "locked";
+                return Result.fail("不允许重复下单");
+            }
+            try {
+                //事务在释放锁之前提交
+                IVoucherOrderService currentProxy = (IVoucherOrderService) AopContext.currentProxy();
+                result = currentProxy.createVoucherOrder(voucherId);
+            } finally {
+                lock.unlock();
+            }
+            if (Boolean.TRUE.equals(result.getSuccess())) {
+                outcome = "ordered";
+            }
+            return result;
+        } finally {
+            if (!"ordered".equals(outcome)) {
+                if (result != null && SeckillStatus.SOLD_OUT.getMessage().equals(result.getErrorMsg())) {
+                    //数据库已经卖完，只归还用户的资格，不把库存加回redis，否则会继续放行注定失败的请求
+                    seckillStockClient.release(voucherId, window.getBuckets(), userId, 0);
+                } else {
+                    //下单失败，归还redis中的资格
+                    seckillStockClient.release(voucherId, window.getBuckets(), userId, 1);
+                }
+            }
+            countSeckill(outcome);
         }
     }
 
+    private void countSeckill(String outcome) {
+        seckillOutcomes.computeIfAbsent(outcome, o -> Counter.builder("seckill.admissions")
+                .tag("outcome", o)
+                .register(meterRegistry))
+                .increment();
+    }
+
 
     @Transactional
     public Result createVoucherOrder(Long voucherId){
         // 一人一单
         Long userId = UserHolder.getUser().getId();
-        //查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id",voucherId).count();
+        //以数据库为准，redis中的订单索引只是缓存，走idx_user_voucher索引
+        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).ne("status", 4).count();
         //判断是否存在
-        if(count>0){
+        if(count > 0){
             //已购买过
             return Result.fail("用户已购买过一次");
         }
@@ -73,16 +168,152 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .setSql("stock=stock-1")
                 .eq("voucher_id", voucherId)
                 .gt("stock",0).update();
-        if(!success){return Result.fail("库存不足");}
+        if(!success){
+            seckillScheduler.publishSoldOut(voucherId);
+            return Result.fail(SeckillStatus.SOLD_OUT.getMessage());
+        }
 
         //返回订单id
-        long orderId = redisIdWorker.nextId("order");
+        long newOrderId = redisIdWorker.nextId("order");
         VoucherOrder voucherOrder = new VoucherOrder();
         voucherOrder.setVoucherId(voucherId);
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(UserHolder.getUser().getId());
+        voucherOrder.setId(newOrderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setStatus(1);
         save(voucherOrder);
-        return Result.ok(orderId);
+        //提交后写入订单状态缓存和用户订单索引，并加入延迟队列，超时未支付自动取消
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                cacheOrderStatus(voucherOrder, true);
+                redisDelayQueue.offer(RedisConstants.ORDER_TIMEOUT_TOPIC, String.valueOf(newOrderId),
+                        System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(payTimeoutMinutes));
+            }
+        });
+        return Result.ok(newOrderId);
+    }
+
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        String json = stringRedisTemplate.opsForValue().get(RedisConstants.ORDER_STATUS_KEY + orderId);
+        OrderStatusDTO status;
+        if (StrUtil.isNotBlank(json)) {
+            status = JSONUtil.toBean(json, OrderStatusDTO.class);
+        } else {
+            //缓存过期，回源数据库
+            VoucherOrder order = getById(orderId);
+            if (order == null) {
+                return Result.fail("订单不存在");
+            }
+            status = cacheOrderStatus(order, false);
+        }
+        if (!userId.equals(status.getUserId())) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(status);
+    }
+
+    @Override
+    public Result queryOrderOfVoucher(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        String indexKey = RedisConstants.ORDER_USER_KEY + userId;
+        Object orderId = stringRedisTemplate.opsForHash().get(indexKey, voucherId.toString());
+        if (orderId == null) {
+            //未命中，从数据库加载，没有订单时缓存NO_ORDER
+            VoucherOrder order = query().select("id")
+                    .eq("user_id", userId).eq("voucher_id", voucherId).ne("status", 4)
+                    .last("limit 1").one();
+            orderId = order == null ? NO_ORDER : order.getId().toString();
+            //不覆盖并发下单在提交后写入的订单id
+            stringRedisTemplate.opsForHash().putIfAbsent(indexKey, voucherId.toString(), orderId);
+            stringRedisTemplate.expire(indexKey, RedisConstants.ORDER_USER_TTL, TimeUnit.MINUTES);
+        }
+        return Result.ok(NO_ORDER.equals(orderId) ? null : Long.valueOf(orderId.toString()));
+    }
+
+    /**
+     * 写入订单状态缓存，index为true时同时更新用户订单索引，已取消的订单从索引中移除
+     */
+    private OrderStatusDTO cacheOrderStatus(VoucherOrder order, boolean index) {
+        OrderStatusDTO status = new OrderStatusDTO();
+        status.setId(order.getId());
+        status.setUserId(order.getUserId());
+        status.setVoucherId(order.getVoucherId());
+        status.setStatus(order.getStatus());
+        String json = JSONUtil.toJsonStr(status);
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.setEx(RedisConstants.ORDER_STATUS_KEY + order.getId(), ttl, json);
+            if (index) {
+                String indexKey = RedisConstants.ORDER_USER_KEY + order.getUserId();
+                if (order.getStatus() != null && order.getStatus() == 4) {
+                    conn.hDel(indexKey, order.getVoucherId().toString());
+                } else {
+                    conn.hSet(indexKey, order.getVoucherId().toString(), order.getId().toString());
+                }
+                conn.expire(indexKey, TimeUnit.MINUTES.toSeconds(RedisConstants.ORDER_USER_TTL));
+            }
+            return null;
+        });
+        return status;
+    }
+
+    @Override
+    public String topic() {
+        return RedisConstants.ORDER_TIMEOUT_TOPIC;
+    }
+
+    @Override
+    @Transactional
+    public void handle(List<String> members) {
+        cancelUnpaidOrders(members.stream().map(Long::valueOf).collect(Collectors.toList()));
+    }
+
+    @Override
+    @Transactional
+    public void cancelUnpaidOrders(Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        //锁定仍未支付的订单，避免和支付并发
+        List<VoucherOrder> orders = query().in("id", orderIds).eq("status", 1).last("for update").list();
+        if (orders.isEmpty()) {
+            return;
+        }
+        update().set("status", 4)
+                .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .update();
+        //按券汇总，每张券一条语句归还数据库库存
+        Map<Long, List<VoucherOrder>> byVoucher = orders.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        byVoucher.forEach((voucherId, list) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + list.size())
+                .eq("voucher_id", voucherId)
+                .update());
+        //提交后归还redis中的库存和购买资格
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                orders.forEach(order -> cacheOrderStatus(order.setStatus(4), true));
+                byVoucher.forEach((voucherId, list) -> restoreSeckillStock(voucherId, list));
+            }
+        });
+        log.info("取消超时未支付订单{}个", orders.size());
+    }
+
+    private void restoreSeckillStock(Long voucherId, List<VoucherOrder> orders) {
+        SeckillWindow window = seckillScheduler.getWindow(voucherId);
+        if (window == null || window.isEnded()) {
+            //秒杀已结束，redis中的数据会自动过期
+            return;
+        }
+        //同一张券的归还通过管道批量发送
+        int released = seckillStockClient.releaseAll(voucherId, window.getBuckets(),
+                orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toList()));
+        if (released > 0 && window.isSoldOut()) {
+            seckillScheduler.publishReopen(voucherId);
+        }
     }
 
 
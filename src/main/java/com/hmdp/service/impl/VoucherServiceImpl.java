@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,11 +8,29 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillScheduler;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillWindow;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -26,13 +45,54 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillScheduler seckillScheduler;
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        // 查询缓存的优惠券列表，未命中时查询数据库
+        String key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        List<Voucher> vouchers = json != null ? JSONUtil.toList(json, Voucher.class) : loadVouchers(shopId);
+        // 覆盖秒杀券的实时库存
+        Map<Long, List<String>> stockKeys = stockKeys(vouchers);
+        if (stockKeys.isEmpty()) {
+            return Result.ok(vouchers);
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(flatten(stockKeys));
+        return Result.ok(overlayStock(vouchers, stockKeys, stocks));
+    }
+
+    @Override
+    public CompletableFuture<Result> queryVoucherOfShopAsync(Long shopId) {
+        return asyncCacheClient.get(RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId).thenCompose(json -> {
+            if (json == null) {
+                //未命中时按同步逻辑查询数据库并写入缓存
+                return asyncCacheClient.supplyBlocking(() -> queryVoucherOfShop(shopId));
+            }
+            List<Voucher> vouchers = JSONUtil.toList(json, Voucher.class);
+            Map<Long, List<String>> stockKeys = stockKeys(vouchers);
+            if (stockKeys.isEmpty()) {
+                return CompletableFuture.completedFuture(Result.ok(vouchers));
+            }
+            return asyncCacheClient.mget(flatten(stockKeys))
+                    .thenApply(stocks -> Result.ok(overlayStock(vouchers, stockKeys, stocks)));
+        });
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        cacheInvalidator.invalidateAfterCommit(true, RedisConstants.CACHE_VOUCHER_SHOP_KEY + voucher.getShopId());
     }
 
     @Override
@@ -47,5 +107,112 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        cacheInvalidator.invalidateAfterCommit(true, RedisConstants.CACHE_VOUCHER_SHOP_KEY + voucher.getShopId());
+        // 临近开始的秒杀券在提交后立即预热，其余的交给定时扫描
+        if (seckillVoucher.getBeginTime().isBefore(LocalDateTime.now().plusMinutes(RedisConstants.SECKILL_PREHEAT_MINUTES))) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    seckillScheduler.preheat(seckillVoucher);
+                }
+            });
+        }
+    }
+
+    /**
+     * 列表缓存的是数据库中的静态信息，库存只在读取时覆盖。
+     * 从主库加载，避免从库延迟时把旧列表写入缓存
+     */
+    private List<Voucher> loadVouchers(Long shopId) {
+        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        String key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId;
+        long endMillis = millisUntilEnd(vouchers);
+        if (endMillis < TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_VOUCHER_SHOP_TTL)) {
+            // 不加随机抖动，保证秒杀结束后不会再读到结束前的库存
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(vouchers), endMillis, TimeUnit.MILLISECONDS);
+        } else {
+            // 没有优惠券的店铺也缓存空列表
+            cacheClient.set(key, vouchers, RedisConstants.CACHE_VOUCHER_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        return vouchers;
+    }
+
+    /**
+     * 距离最早一张秒杀券结束的时间。
+     * 结束后本节点可能没有售卖窗口（例如重启过），不再覆盖库存；订单在下单请求的事务中同步写入，
+     * 结束时数据库中的库存已经是最终值，列表在结束时过期后重新加载
+     * @return 没有未结束的秒杀券时返回Long.MAX_VALUE
+     */
+    private static long millisUntilEnd(List<Voucher> vouchers) {
+        LocalDateTime now = LocalDateTime.now();
+        long min = Long.MAX_VALUE;
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() == null || voucher.getEndTime() == null) {
+                continue;
+            }
+            if (voucher.getEndTime().isAfter(now)) {
+                min = Math.min(min, Duration.between(now, voucher.getEndTime()).toMillis());
+            }
+        }
+        return Math.max(min, 1);
+    }
+
+    /**
+     * 本节点已经预热的秒杀券的库存key，按券分组。
+     * 只读本地窗口，异步接口在lettuce的io线程上调用也不会阻塞；
+     * 还没有预热的券没有开始扣减，数据库中的库存就是准确的；
+     * 已经结束的券在本节点保留窗口期间继续覆盖，没有窗口时依靠列表缓存在结束后过期，重新加载最终库存
+     */
+    private Map<Long, List<String>> stockKeys(List<Voucher> vouchers) {
+        Map<Long, List<String>> keys = new LinkedHashMap<>();
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() == null) {
+                // 普通券没有库存
+                continue;
+            }
+            SeckillWindow window = seckillScheduler.getLocalWindow(voucher.getId());
+            if (window != null) {
+                keys.put(voucher.getId(), SeckillStockClient.stockKeys(voucher.getId(), window.getBuckets()));
+            }
+        }
+        return keys;
+    }
+
+    private static List<String> flatten(Map<Long, List<String>> stockKeys) {
+        List<String> keys = new ArrayList<>();
+        stockKeys.values().forEach(keys::addAll);
+        return keys;
+    }
+
+    /**
+     * 用redis中各分桶之和覆盖库存，分桶key都已过期时保留缓存中的值
+     */
+    private static List<Voucher> overlayStock(List<Voucher> vouchers, Map<Long, List<String>> stockKeys, List<String> stocks) {
+        if (stocks == null) {
+            return vouchers;
+        }
+        Map<Long, Integer> remaining = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<Long, List<String>> entry : stockKeys.entrySet()) {
+            long total = 0;
+            boolean found = false;
+            for (int b = 0; b < entry.getValue().size(); b++, i++) {
+                String value = stocks.get(i);
+                if (value != null) {
+                    found = true;
+                    total += Math.max(Long.parseLong(value), 0);
+                }
+            }
+            if (found) {
+                remaining.put(entry.getKey(), (int) total);
+            }
+        }
+        for (Voucher voucher : vouchers) {
+            Integer stock = remaining.get(voucher.getId());
+            if (stock != null) {
+                voucher.setStock(stock);
+            }
+        }
+        return vouchers;
     }
 }
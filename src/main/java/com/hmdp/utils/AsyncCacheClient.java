@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 读接口的异步缓存查询：
+ * 通过lettuce异步命令读取redis，命中时不占用任何阻塞线程；
+ * 未命中需要查询数据库时，交给有界的回源线程池，池满时直接失败，不会拖住tomcat线程
+ */
+@Slf4j
+@Component
+public class AsyncCacheClient {
+    private final StatefulRedisConnection<String, String> connection;
+    private final CacheClient cacheClient;
+    private final HotKeyDetector hotKeyDetector;
+    private final ExecutorService fallbackExecutor;
+
+    public AsyncCacheClient(StatefulRedisConnection<String, String> asyncRedisConnection, CacheClient cacheClient,
+                            HotKeyDetector hotKeyDetector, ExecutorRegistry executorRegistry) {
+        this.connection = asyncRedisConnection;
+        this.cacheClient = cacheClient;
+        this.hotKeyDetector = hotKeyDetector;
+        //线程数不超过数据库连接池
+        this.fallbackExecutor = executorRegistry.executor("db-fallback", 8, 256, ExecutorRegistry.Rejection.ABORT);
+    }
+
+    /**
+     * 异步读取缓存，热点key优先读本地缓存
+     */
+    public CompletableFuture<String> get(String key) {
+        hotKeyDetector.record(key);
+        String local = hotKeyDetector.getLocal(key);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
+        }
+        return connection.async().get(key).toCompletableFuture()
+                .thenApply(json -> {
+                    hotKeyDetector.putLocal(key, json);
+                    return json;
+                });
+    }
+
+    /**
+     * 异步批量读取，不存在的key对应null，不经过本地缓存
+     */
+    public CompletableFuture<List<String>> mget(List<String> keys) {
+        return connection.async().mget(keys.toArray(new String[0])).toCompletableFuture()
+                .thenApply(values -> values.stream()
+                        .map(kv -> kv.getValueOrElse(null))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * 异步版本的CacheClient.queryWithEarlyRefresh，命中时不阻塞，未命中时在回源线程池中走同步逻辑
+     */
+    public <R, ID> CompletableFuture<R> queryWithEarlyRefresh(String keyPrefix, ID id, Class<R> type,
+                                                             Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return get(keyPrefix + id).thenCompose(json -> json == null
+                ? supplyBlocking(() -> cacheClient.queryWithEarlyRefresh(keyPrefix, id, type, dbFallback, time, unit))
+                : CompletableFuture.completedFuture(cacheClient.fromEarlyRefresh(keyPrefix, id, json, type, dbFallback, time, unit)));
+    }
+
+    /**
+     * 在回源线程池中执行阻塞操作，池满时返回失败的future
+     */
+    public <T> CompletableFuture<T> supplyBlocking(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, fallbackExecutor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
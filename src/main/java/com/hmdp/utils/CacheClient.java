@@ -3,53 +3,106 @@ package com.hmdp.utils;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * 缓存工具，按key前缀统计命中、未命中、空值命中、逻辑过期和重建次数
+ */
 @Slf4j
 @Component
-
 public class CacheClient {
+    /**
+     * 过期时间的最大随机延长比例
+     */
+    private static final double TTL_JITTER_RATIO = 0.1;
+    /**
+     * XFetch的系数，大于1时更早刷新
+     */
+    private static final double XFETCH_BETA = 1.0;
+
     private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockClient redisLockClient;
+    private final MeterRegistry meterRegistry;
+    private final HotKeyDetector hotKeyDetector;
+    private final ExecutorService rebuildExecutor;
+    //本节点正在重建的key，避免同一个过期key重复提交重建任务
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisLockClient redisLockClient,
+                       MeterRegistry meterRegistry, HotKeyDetector hotKeyDetector, ExecutorRegistry executorRegistry) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisLockClient = redisLockClient;
+        this.meterRegistry = meterRegistry;
+        this.hotKeyDetector = hotKeyDetector;
+        //重建任务按key去重，队列满时放弃本次重建，由后续请求再次触发
+        this.rebuildExecutor = executorRegistry.executor("cache-rebuild", 4, 256, ExecutorRegistry.Rejection.ABORT);
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), jitter(unit.toMillis(time)), TimeUnit.MILLISECONDS);
+        hotKeyDetector.invalidate(key);
+    }
+
+    public void delete(String key) {
+        delete(Collections.singletonList(key));
+    }
+
+    /**
+     * 删除redis中的key，并通知所有节点清理本地缓存
+     */
+    public void delete(Collection<String> keys) {
+        stringRedisTemplate.delete(keys);
+        hotKeyDetector.evict(keys);
     }
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
         RedisData redisData = new RedisData();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
         stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        hotKeyDetector.invalidate(key);
     }
 
     public <R,ID> R queryWithPassThrough(String keyProfix, ID id, Class<R> type, Function<ID,R> dbFallback,Long time,TimeUnit unit) {
         String key = keyProfix + id;
         //查询redis缓存
-        String json= stringRedisTemplate.opsForValue().get(key);
+        String json= get(key);
         //判断是否存在
         if (StrUtil.isNotBlank(json)) {
             //存在直接返回
+            metrics(keyProfix).hit.increment();
             return JSONUtil.toBean(json, type);
         }
         //判断命中的是否是空值
         if(json!=null){
             //返回错误信息
+            metrics(keyProfix).nullHit.increment();
             return null;
         }
+        metrics(keyProfix).miss.increment();
 
         //不存在，查询数据库
         R r = dbFallback.apply(id);
+        metrics(keyProfix).rebuild.increment();
         //数据库中不存在，返回错误
         if(r==null){
             //为了防止缓存穿透，将空值写入redis
@@ -63,10 +116,271 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 互斥锁解决缓存击穿，只有拿到锁的线程查询数据库，其他线程休眠后重试
+     */
+    public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        while (true) {
+            //查询redis缓存
+            String json = get(key);
+            if (StrUtil.isNotBlank(json)) {
+                metrics(keyPrefix).hit.increment();
+                return JSONUtil.toBean(json, type);
+            }
+            if (json != null) {
+                metrics(keyPrefix).nullHit.increment();
+                return null;
+            }
+            metrics(keyPrefix).miss.increment();
+            //获取互斥锁
+            ILock lock = redisLockClient.getLock("lock:" + key);
+            if (!lock.tryLock()) {
+                //获取锁失败，休眠重试
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+                continue;
+            }
+            try {
+                //再查一次，其他线程可能已经完成重建
+                json = stringRedisTemplate.opsForValue().get(key);
+                if (StrUtil.isNotBlank(json)) {
+                    return JSONUtil.toBean(json, type);
+                }
+                R r = dbFallback.apply(id);
+                metrics(keyPrefix).rebuild.increment();
+                if (r == null) {
+                    //为了防止缓存穿透，将空值写入redis
+                    stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    return null;
+                }
+                this.set(key, r, time, unit);
+                return r;
+            } finally {
+                //释放锁
+                lock.unlock();
+            }
+        }
+    }
 
+    /**
+     * 逻辑过期解决缓存击穿，数据需要提前预热，过期后返回旧数据并异步重建
+     */
+    public <R,ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        //查询redis缓存
+        String json = get(key);
+        //判断是否存在
+        if (StrUtil.isBlank(json)) {
+            //不存在直接返回空
+            metrics(keyPrefix).miss.increment();
+            return null;
+        }
+        //命中，需要反序列化并判断过期时间
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            //未过期，直接返回
+            metrics(keyPrefix).hit.increment();
+            return r;
+        }
+        metrics(keyPrefix).expired.increment();
+        //过期，需要重建，再检查一次redis缓存是否过期，避免重复更新
+        rebuildAsync(keyPrefix, key,
+                current -> StrUtil.isBlank(current)
+                        || !JSONUtil.toBean(current, RedisData.class).getExpireTime().isAfter(LocalDateTime.now()),
+                () -> this.setWithLogicalExpire(key, dbFallback.apply(id), time, unit));
+        //返回旧数据
+        return r;
+    }
 
+    /**
+     * 带过期抖动和提前刷新的缓存查询，不需要预热。
+     * 临近过期时按XFetch算法以一定概率由单个请求异步刷新，重建越慢的key越早开始刷新
+     */
+    public <R,ID> R queryWithEarlyRefresh(String keyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        String json = get(key);
+        if (json != null) {
+            return fromEarlyRefresh(keyPrefix, id, json, type, dbFallback, time, unit);
+        }
+        metrics(keyPrefix).miss.increment();
+        R r = load(key, id, dbFallback, time, unit);
+        metrics(keyPrefix).rebuild.increment();
+        return r;
+    }
 
+    /**
+     * 处理已经读到的缓存值，命中或空值时不会阻塞，需要提前刷新时提交异步重建
+     * @param json redis中的值，不能为null
+     */
+    <R,ID> R fromEarlyRefresh(String keyPrefix, ID id, String json, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        if (StrUtil.isNotBlank(json)) {
+            metrics(keyPrefix).hit.increment();
+            CacheEntry entry = JSONUtil.toBean(json, CacheEntry.class);
+            if (shouldRefreshEarly(entry)) {
+                metrics(keyPrefix).earlyRefresh.increment();
+                long expireAt = entry.getExpireAt();
+                //其他请求已经刷新过则跳过
+                rebuildAsync(keyPrefix, key,
+                        current -> StrUtil.isBlank(current) || JSONUtil.toBean(current, CacheEntry.class).getExpireAt() <= expireAt,
+                        () -> load(key, id, dbFallback, time, unit));
+            }
+            return JSONUtil.toBean((JSONObject) entry.getData(), type);
+        }
+        metrics(keyPrefix).nullHit.increment();
+        return null;
+    }
 
+    /**
+     * 按提前刷新的格式写入缓存
+     * @param delta 重建耗时，毫秒，未知时传0，此时只在过期后才重建
+     */
+    public void setWithEarlyRefresh(String key, Object value, Long time, TimeUnit unit, long delta) {
+        long ttl = jitter(unit.toMillis(time));
+        CacheEntry entry = new CacheEntry();
+        entry.setData(value);
+        entry.setExpireAt(System.currentTimeMillis() + ttl);
+        entry.setDelta(delta);
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(entry), ttl, TimeUnit.MILLISECONDS);
+        hotKeyDetector.invalidate(key);
+    }
 
+    /**
+     * 批量按提前刷新的格式写入，一次管道提交
+     */
+    public void setBatchWithEarlyRefresh(Map<String, ?> values, Long time, TimeUnit unit) {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            values.forEach((key, value) -> {
+                long ttl = jitter(unit.toMillis(time));
+                CacheEntry entry = new CacheEntry();
+                entry.setData(value);
+                entry.setExpireAt(now + ttl);
+                conn.pSetEx(key, ttl, JSONUtil.toJsonStr(entry));
+            });
+            return null;
+        });
+        values.keySet().forEach(hotKeyDetector::invalidate);
+    }
 
+    private <R,ID> R load(String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        long start = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            //为了防止缓存穿透，将空值写入redis
+            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            hotKeyDetector.invalidate(key);
+            return null;
+        }
+        setWithEarlyRefresh(key, r, time, unit, System.currentTimeMillis() - start);
+        return r;
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(rand) >= expireAt 时刷新，rand取(0,1]
+     */
+    private static boolean shouldRefreshEarly(CacheEntry entry) {
+        double rand = 1 - ThreadLocalRandom.current().nextDouble();
+        return System.currentTimeMillis() - entry.getDelta() * XFETCH_BETA * Math.log(rand) >= entry.getExpireAt();
+    }
+
+    /**
+     * 在ttl基础上随机延长最多10%，避免同时写入的key同时过期
+     */
+    private static long jitter(long ttlMillis) {
+        return ttlMillis + ThreadLocalRandom.current().nextLong((long) (ttlMillis * TTL_JITTER_RATIO) + 1);
+    }
+
+    /**
+     * 异步重建，同一个key在本节点只提交一次，集群内由分布式锁保证只有一个节点重建，锁的获取和释放在同一个线程
+     * @param stale 传入redis中的最新值，判断是否仍需要重建
+     */
+    private void rebuildAsync(String keyPrefix, String key, Predicate<String> stale, Runnable rebuild) {
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        Runnable task = () -> {
+            ILock lock = redisLockClient.getLock("lock:" + key);
+            try {
+                //其他节点正在重建
+                if (!lock.tryLock()) {
+                    return;
+                }
+                try {
+                    if (!stale.test(stringRedisTemplate.opsForValue().get(key))) {
+                        return;
+                    }
+                    //重建缓存
+                    rebuild.run();
+                    metrics(keyPrefix).rebuild.increment();
+                } finally {
+                    //释放锁
+                    lock.unlock();
+                }
+            } catch (Exception e) {
+                metrics(keyPrefix).rebuildFailure.increment();
+                log.error("缓存重建失败，key:{}", key, e);
+            } finally {
+                rebuilding.remove(key);
+            }
+        };
+        try {
+            rebuildExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rebuilding.remove(key);
+            log.warn("重建队列已满，跳过本次重建，key:{}", key);
+        }
+    }
+
+    /**
+     * 读取缓存，热点key优先读本地缓存
+     */
+    private String get(String key) {
+        hotKeyDetector.record(key);
+        String json = hotKeyDetector.getLocal(key);
+        if (json != null) {
+            return json;
+        }
+        json = stringRedisTemplate.opsForValue().get(key);
+        hotKeyDetector.putLocal(key, json);
+        return json;
+    }
+
+    private PrefixMetrics metrics(String prefix) {
+        return metrics.computeIfAbsent(prefix, p -> new PrefixMetrics(meterRegistry, p));
+    }
+
+    /**
+     * 单个key前缀的计数器，创建后缓存，热路径上只有一次map查找
+     */
+    private static class PrefixMetrics {
+        final Counter hit;
+        final Counter miss;
+        final Counter nullHit;
+        final Counter expired;
+        final Counter earlyRefresh;
+        final Counter rebuild;
+        final Counter rebuildFailure;
+
+        PrefixMetrics(MeterRegistry registry, String prefix) {
+            hit = get(registry, prefix, "hit");
+            miss = get(registry, prefix, "miss");
+            nullHit = get(registry, prefix, "null");
+            expired = get(registry, prefix, "expired");
+            earlyRefresh = get(registry, prefix, "early_refresh");
+            rebuild = Counter.builder("cache.rebuilds").tag("prefix", prefix).tag("result", "success").register(registry);
+            rebuildFailure = Counter.builder("cache.rebuilds").tag("prefix", prefix).tag("result", "failure").register(registry);
+        }
+
+        private static Counter get(MeterRegistry registry, String prefix, String result) {
+            return Counter.builder("cache.gets").tag("prefix", prefix).tag("result", result).register(registry);
+        }
+    }
 }
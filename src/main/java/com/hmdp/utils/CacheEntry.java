@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+/**
+ * 提前刷新的缓存格式
+ */
+@Data
+public class CacheEntry {
+    private Object data;
+    /**
+     * 物理过期时间戳，毫秒
+     */
+    private long expireAt;
+    /**
+     * 上一次重建的耗时，毫秒
+     */
+    private long delta;
+}
@@ -0,0 +1,350 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 缓存失效事件流：
+ * 数据库写入在事务提交后向redis stream发布要删除的key，消费者组中的一个节点负责删除，
+ * 失败的事件不确认，留在本节点的pending列表中重试，超过次数后丢弃并报警。
+ * 每个进程使用独立的消费者名，已下线节点遗留的pending事件由存活节点定期认领。
+ * 可选延迟双删，覆盖提交前后并发读把旧数据写回缓存的情况
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+    private static final long RETRY_INTERVAL_MILLIS = 500;
+    private static final long STREAM_MAX_LENGTH = 10000;
+    //每次裁剪最多删除的条数
+    private static final int TRIM_BATCH = 5000;
+    //pending事件空闲超过该时间视为原消费者已下线
+    private static final Duration CLAIM_IDLE = Duration.ofSeconds(60);
+    //空闲超过该时间且没有pending事件的消费者从组中删除
+    private static final Duration CONSUMER_IDLE = Duration.ofHours(1);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheClient cacheClient;
+    private final TaskScheduler taskScheduler;
+    private final long doubleDeleteDelayMillis;
+    private final int maxAttempts;
+    private final String stream;
+    private final String group;
+    private final String consumerName;
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("stream_trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    //本节点pending事件的重试次数
+    private final Map<RecordId, Integer> attempts = new ConcurrentHashMap<>();
+    private final Counter deleted;
+    private final Counter retried;
+    private final Counter dropped;
+    private volatile boolean running;
+
+    @Autowired
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient,
+                            TaskScheduler taskScheduler, MeterRegistry meterRegistry,
+                            @Value("${hmdp.cache.double-delete-delay-millis:500}") long doubleDeleteDelayMillis,
+                            @Value("${hmdp.cache.invalidation-max-attempts:10}") int maxAttempts) {
+        this(stringRedisTemplate, cacheClient, taskScheduler, meterRegistry, doubleDeleteDelayMillis, maxAttempts,
+                RedisConstants.CACHE_INVALIDATION_STREAM, RedisConstants.CACHE_INVALIDATION_GROUP);
+    }
+
+    /**
+     * 指定事件流和消费者组，测试使用单独的名字，不和运行中的实例共用
+     */
+    CacheInvalidator(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient,
+                     TaskScheduler taskScheduler, MeterRegistry meterRegistry,
+                     long doubleDeleteDelayMillis, int maxAttempts, String stream, String group) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.taskScheduler = taskScheduler;
+        this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.stream = stream;
+        this.group = group;
+        //同一台机器上可能运行多个实例，重启后也不复用旧的名字，遗留的pending事件由claimIdle接管
+        this.consumerName = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.deleted = Counter.builder("cache.invalidations").tag("result", "deleted").register(meterRegistry);
+        this.retried = Counter.builder("cache.invalidations").tag("result", "retried").register(meterRegistry);
+        this.dropped = Counter.builder("cache.invalidations").tag("result", "dropped").register(meterRegistry);
+    }
+
+    /**
+     * 在当前事务提交后删除缓存，没有事务时立即发布
+     * @param doubleDelete 是否在延迟后再删一次
+     */
+    public void invalidateAfterCommit(boolean doubleDelete, String... keys) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    publish(doubleDelete, keys);
+                }
+            });
+        } else {
+            publish(doubleDelete, keys);
+        }
+    }
+
+    private void publish(boolean doubleDelete, String... keys) {
+        Map<String, String> event = new HashMap<>();
+        event.put("keys", String.join(",", keys));
+        event.put("doubleDelete", doubleDelete ? "1" : "0");
+        try {
+            stringRedisTemplate.opsForStream().add(stream, event);
+        } catch (Exception e) {
+            //发布失败时直接删除，删除也失败只能等缓存过期
+            log.error("缓存失效事件发布失败，直接删除，keys:{}", event.get("keys"), e);
+            cacheClient.delete(Arrays.asList(keys));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        createGroup();
+        running = true;
+        Thread consumer = new Thread(this::consumeLoop, "cache-invalidator");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    stream.getBytes(StandardCharsets.UTF_8),
+                    group, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            //消费者组已存在
+            log.debug("缓存失效消费者组已存在");
+        }
+    }
+
+    private void consumeLoop() {
+        while (running) {
+            try {
+                consumeOnce(Duration.ofSeconds(2));
+            } catch (Exception e) {
+                if (running) {
+                    log.error("缓存失效事件消费异常", e);
+                    sleep(RETRY_INTERVAL_MILLIS);
+                }
+            }
+        }
+    }
+
+    String getConsumerName() {
+        return consumerName;
+    }
+
+    /**
+     * 先重试本节点未确认的事件，没有时阻塞读取新事件
+     * @return 处理的事件数
+     */
+    int consumeOnce(Duration block) {
+        List<MapRecord<String, Object, Object>> records = read(ReadOffset.from("0"), null);
+        boolean retrying = !records.isEmpty();
+        if (!retrying) {
+            records = read(ReadOffset.lastConsumed(), block);
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            handle(record);
+        }
+        if (retrying) {
+            //pending中都是失败过的事件，间隔一段时间再重试
+            sleep(RETRY_INTERVAL_MILLIS);
+        }
+        return records.size();
+    }
+
+    private List<MapRecord<String, Object, Object>> read(ReadOffset offset, Duration block) {
+        StreamReadOptions options = StreamReadOptions.empty().count(100);
+        if (block != null) {
+            options = options.block(block);
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(group, consumerName),
+                options,
+                StreamOffset.create(stream, offset));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    private void handle(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> event = record.getValue();
+        if (event == null || event.get("keys") == null) {
+            //事件已经被删除，无法知道要删除的key，只能等缓存过期
+            log.error("缓存失效事件内容已丢失，id:{}", record.getId());
+            ack(record.getId());
+            dropped.increment();
+            return;
+        }
+        List<String> keys = StrUtil.split(String.valueOf(event.get("keys")), ',');
+        try {
+            cacheClient.delete(keys);
+            ack(record.getId());
+            deleted.increment();
+            if ("1".equals(event.get("doubleDelete")) && doubleDeleteDelayMillis > 0) {
+                taskScheduler.schedule(() -> deleteQuietly(keys),
+                        new Date(System.currentTimeMillis() + doubleDeleteDelayMillis));
+            }
+        } catch (Exception e) {
+            int n = attempts.merge(record.getId(), 1, Integer::sum);
+            if (n >= maxAttempts) {
+                log.error("缓存删除失败{}次，放弃，keys:{}", n, keys, e);
+                ack(record.getId());
+                dropped.increment();
+            } else {
+                log.warn("缓存删除失败，稍后重试，keys:{}", keys, e);
+                retried.increment();
+            }
+        }
+    }
+
+    private void ack(RecordId id) {
+        stringRedisTemplate.opsForStream().acknowledge(stream, group, id);
+        attempts.remove(id);
+    }
+
+    private void deleteQuietly(List<String> keys) {
+        try {
+            cacheClient.delete(keys);
+        } catch (Exception e) {
+            log.error("延迟双删失败，keys:{}", keys, e);
+        }
+    }
+
+    /**
+     * 定期裁剪事件流，只删除已确认的事件；同时接管下线节点遗留的事件
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void trim() {
+        try {
+            trimAcknowledged();
+        } catch (Exception e) {
+            log.warn("裁剪缓存失效事件流失败", e);
+        }
+        try {
+            claimIdle(CLAIM_IDLE);
+            removeIdleConsumers();
+        } catch (Exception e) {
+            log.warn("接管缓存失效pending事件失败", e);
+        }
+    }
+
+    /**
+     * 超过保留条数时删除消费者组已经确认的最早的事件，XTRIM MAXLEN不区分是否确认，会删掉还在pending中的事件
+     * @return 删除的条数
+     */
+    long trimAcknowledged() {
+        Long deleted = stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(stream),
+                group, String.valueOf(STREAM_MAX_LENGTH), String.valueOf(TRIM_BATCH));
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * 把其他消费者空闲超过minIdle的pending事件转移到本节点，之后由consumeOnce按失败事件重试
+     * @return 接管的事件数
+     */
+    int claimIdle(Duration minIdle) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(stream, group, Range.unbounded(), 100);
+        if (pending == null || pending.isEmpty()) {
+            return 0;
+        }
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumerName.equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                ids.add(message.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        //minIdle由redis再检查一次，避免和原消费者或其他节点同时认领
+        List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                connection.streamCommands().xClaimJustId(stream.getBytes(StandardCharsets.UTF_8), group, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids.toArray(new RecordId[0]))));
+        int n = claimed == null ? 0 : claimed.size();
+        if (n > 0) {
+            log.info("接管缓存失效pending事件{}条", n);
+        }
+        return n;
+    }
+
+    private void removeIdleConsumers() {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(stream, group);
+        if (consumers == null) {
+            return;
+        }
+        consumers.forEach(consumer -> {
+            if (!consumerName.equals(consumer.consumerName()) && consumer.pendingCount() == 0
+                    && consumer.idleTimeMs() > CONSUMER_IDLE.toMillis()) {
+                stringRedisTemplate.opsForStream().deleteConsumer(stream, Consumer.from(group, consumer.consumerName()));
+            }
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "localhost";
+        }
+    }
+}
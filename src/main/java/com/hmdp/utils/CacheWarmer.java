@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 启动时并行预热缓存：店铺和GEO、店铺类型、进行中的秒杀券。
+ * 店铺按id游标分批读取，每批通过管道写入redis，完成前readiness探针返回OUT_OF_SERVICE
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private SeckillScheduler seckillScheduler;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.warmup.chunk-size:500}")
+    private int chunkSize;
+
+    //各阶段已写入的条数，-1表示失败
+    private final Map<String, AtomicLong> progress = new ConcurrentHashMap<>();
+    private volatile boolean done;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            done = true;
+            return;
+        }
+        //三个阶段各占一个线程，预热结束后线程空闲回收
+        ExecutorService executor = executorRegistry.executor("cache-warmup", 3, 3, ExecutorRegistry.Rejection.CALLER_RUNS);
+        long start = System.currentTimeMillis();
+        CompletableFuture.allOf(
+                stage("shops", this::warmShops, executor),
+                stage("shopTypes", this::warmShopTypes, executor),
+                stage("vouchers", this::warmVouchers, executor)
+        ).whenComplete((r, e) -> {
+            done = true;
+            log.info("缓存预热完成，耗时{}ms，{}", System.currentTimeMillis() - start, progress);
+        });
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public Map<String, Long> getProgress() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        progress.forEach((stage, count) -> result.put(stage, count.get()));
+        return result;
+    }
+
+    private CompletableFuture<Void> stage(String name, Consumer<AtomicLong> task, ExecutorService executor) {
+        AtomicLong count = new AtomicLong();
+        progress.put(name, count);
+        Gauge.builder("cache.warmup.rows", count, AtomicLong::get).tag("stage", name).register(meterRegistry);
+        return CompletableFuture.runAsync(() -> task.accept(count), executor).exceptionally(e -> {
+            //预热失败不影响服务，缓存会在读取时回源
+            log.error("缓存预热失败，stage:{}", name, e);
+            count.set(-1);
+            return null;
+        });
+    }
+
+    /**
+     * 按id游标分批读取店铺，写入店铺缓存和按类型划分的GEO
+     */
+    private void warmShops(AtomicLong count) {
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopService.query()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + chunkSize)
+                    .list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setBatchWithEarlyRefresh(values, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    if (shop.getX() != null && shop.getY() != null) {
+                        conn.geoAdd(RedisConstants.SHOP_GEO_KEY + shop.getTypeId(),
+                                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                }
+                return null;
+            });
+            lastId = shops.get(shops.size() - 1).getId();
+            log.debug("店铺预热进度：{}", count.addAndGet(shops.size()));
+        }
+    }
+
+    private void warmShopTypes(AtomicLong count) {
+        List<ShopType> types = shopTypeService.query().orderByAsc("sort").list();
+        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(types));
+        count.set(types.size());
+    }
+
+    /**
+     * 预热即将开始和进行中的秒杀券的库存、售卖窗口和已购用户
+     */
+    private void warmVouchers(AtomicLong count) {
+        count.set(seckillScheduler.scan());
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存预热完成前返回OUT_OF_SERVICE，加入readiness分组后，预热期间不接收流量
+ */
+@Component
+public class CacheWarmupHealthIndicator extends AbstractHealthIndicator {
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (cacheWarmer.isDone()) {
+            builder.up();
+        } else {
+            builder.outOfService();
+        }
+        builder.withDetail("progress", cacheWarmer.getProgress());
+    }
+}
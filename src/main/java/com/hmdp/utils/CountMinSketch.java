@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的count-min sketch，估计值只会偏大不会偏小，用固定内存统计任意多个key的访问次数
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth 哈希函数个数
+     * @param width 每行的计数器个数，必须是2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("width必须是2的幂");
+        }
+        this.depth = depth;
+        this.mask = width - 1;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    /**
+     * 计数加一并返回当前估计值
+     */
+    public long add(String key) {
+        int h1 = key.hashCode();
+        int h2 = spread(h1);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int index = i * (mask + 1) + ((h1 + i * h2) & mask);
+            min = Math.min(min, counters.incrementAndGet(index));
+        }
+        return min;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h | 1;
+    }
+}
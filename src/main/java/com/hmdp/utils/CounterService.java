@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.CounterMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 计数写回：
+ * 笔记的点赞数、评论数先用HINCRBY累加到redis，不再逐次执行行锁的UPDATE，
+ * 定时分批原子地取出增量（每批约500个字段），每批合并成一条UPDATE写回数据库后再取下一批。
+ * 节点在取出后、写回前宕机会丢失这一批增量；写回失败的增量加回redis等下次写回
+ */
+@Slf4j
+@Component
+public class CounterService {
+    private static final int BATCH_SIZE = 500;
+    //每次定时任务每种计数最多写回的批数，剩余的留到下一次
+    private static final int MAX_ROUNDS = 20;
+
+    private static final DefaultRedisScript<List> HASH_DRAIN_SCRIPT;
+    static {
+        HASH_DRAIN_SCRIPT = new DefaultRedisScript<>();
+        HASH_DRAIN_SCRIPT.setLocation(new ClassPathResource("hash_drain.lua"));
+        HASH_DRAIN_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CounterMapper counterMapper;
+
+    public void increment(CounterType type, Long id, long delta) {
+        stringRedisTemplate.opsForHash().increment(type.getKey(), id.toString(), delta);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.counter.flush-millis:5000}")
+    public void flush() {
+        for (CounterType type : CounterType.values()) {
+            try {
+                flush(type);
+            } catch (Exception e) {
+                log.error("计数写回失败，type:{}", type, e);
+            }
+        }
+    }
+
+    private void flush(CounterType type) {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            if (!flushBatch(type)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 取出一批增量并写回
+     * @return 是否继续取下一批，hash已经清空或者写回失败时返回false
+     */
+    @SuppressWarnings("unchecked")
+    private boolean flushBatch(CounterType type) {
+        List<String> data = stringRedisTemplate.execute(HASH_DRAIN_SCRIPT,
+                Collections.singletonList(type.getKey()), String.valueOf(BATCH_SIZE));
+        if (data == null || data.isEmpty()) {
+            return false;
+        }
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < data.size(); i += 2) {
+            long delta = Long.parseLong(data.get(i + 1));
+            if (delta != 0) {
+                deltas.put(Long.valueOf(data.get(i)), delta);
+            }
+        }
+        return deltas.isEmpty() || write(type, deltas);
+    }
+
+    private boolean write(CounterType type, Map<Long, Long> deltas) {
+        try {
+            counterMapper.addDeltas(type.getTable(), type.getIdColumn(), type.getColumn(), deltas);
+            return true;
+        } catch (Exception e) {
+            //写回失败，加回redis等下次写回
+            log.error("计数写回失败，稍后重试，type:{}，行数:{}", type, deltas.size(), e);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                deltas.forEach((id, delta) -> conn.hIncrBy(type.getKey(), id.toString(), delta));
+                return null;
+            });
+            return false;
+        }
+    }
+}
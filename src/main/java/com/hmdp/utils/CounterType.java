@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+/**
+ * 写回数据库的计数字段，表名和列名只来自这里，不接受外部输入
+ */
+@Getter
+public enum CounterType {
+    BLOG_LIKED("blog:liked", "tb_blog", "id", "liked"),
+    BLOG_COMMENTS("blog:comments", "tb_blog", "id", "comments");
+
+    /**
+     * 累加增量的redis hash
+     */
+    private final String key;
+    private final String table;
+    private final String idColumn;
+    private final String column;
+
+    CounterType(String key, String table, String idColumn, String column) {
+        this.key = RedisConstants.COUNTER_KEY + key;
+        this.table = table;
+        this.idColumn = idColumn;
+        this.column = column;
+    }
+}
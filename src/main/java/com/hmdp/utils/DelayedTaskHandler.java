@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 延迟队列的任务处理器，注册为bean后由RedisDelayQueue按topic分发
+ */
+public interface DelayedTaskHandler {
+
+    String topic();
+
+    /**
+     * 批量处理到期任务，抛出异常时任务会在租期过后重新投递
+     */
+    void handle(List<String> members);
+}
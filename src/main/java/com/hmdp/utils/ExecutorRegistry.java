@@ -0,0 +1,226 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 统一管理后台线程池：
+ * 每类任务一个有名字、有界的线程池，互不抢占线程，线程数和队列长度可通过hmdp.executors.{name}.*覆盖。
+ * 提交任务时带上MDC和UserHolder中的登录用户，任务异常统一记录日志，
+ * 指标通过executor.*导出，拒绝次数记录在executor.rejected，应用关闭时等待已提交的任务执行完
+ */
+@Slf4j
+@Component
+public class ExecutorRegistry {
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum Rejection {
+        /**
+         * 抛出RejectedExecutionException，由调用方处理
+         */
+        ABORT,
+        /**
+         * 由提交任务的线程执行，起到限速作用
+         */
+        CALLER_RUNS,
+        /**
+         * 丢弃任务，只记录日志
+         */
+        DISCARD
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    public ExecutorRegistry(MeterRegistry meterRegistry, Environment environment) {
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+    }
+
+    /**
+     * 获取或创建线程池，同名的线程池只创建一次
+     * @param threads 默认线程数
+     * @param queueCapacity 默认队列长度
+     */
+    public ExecutorService executor(String name, int threads, int queueCapacity, Rejection rejection) {
+        return executors.computeIfAbsent(name, n -> {
+            int size = environment.getProperty("hmdp.executors." + n + ".threads", Integer.class, threads);
+            int capacity = environment.getProperty("hmdp.executors." + n + ".queue-capacity", Integer.class, queueCapacity);
+            ContextThreadPoolExecutor executor = new ContextThreadPoolExecutor(n, size, capacity,
+                    rejectionHandler(n, rejection));
+            new ExecutorServiceMetrics(executor, n, Tags.empty()).bindTo(meterRegistry);
+            log.debug("创建线程池{}，线程数:{}，队列长度:{}", n, size, capacity);
+            return executor;
+        });
+    }
+
+    /**
+     * 获取或创建定时任务线程池，用于续期、延迟等短小的定时任务
+     */
+    public ScheduledExecutorService scheduler(String name, int threads) {
+        return (ScheduledExecutorService) executors.computeIfAbsent(name, n -> {
+            int size = environment.getProperty("hmdp.executors." + n + ".threads", Integer.class, threads);
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(size, threadFactory(n));
+            executor.setRemoveOnCancelPolicy(true);
+            new ExecutorServiceMetrics(executor, n, Tags.empty()).bindTo(meterRegistry);
+            return executor;
+        });
+    }
+
+    /**
+     * 先停止接收新任务，等待已提交的任务执行完，超时后中断
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(
+                environment.getProperty("hmdp.executors.shutdown-timeout-seconds", Long.class, 10L));
+        List<String> names = new ArrayList<>(executors.keySet());
+        names.forEach(name -> executors.get(name).shutdown());
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (String name : names) {
+            ExecutorService executor = executors.get(name);
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            if (!executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("线程池{}未能在{}ms内结束，丢弃{}个排队任务", name, timeoutMillis, dropped.size());
+            }
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler(String name, Rejection rejection) {
+        Counter rejected = Counter.builder("executor.rejected").tag("name", name).register(meterRegistry);
+        RejectedExecutionHandler delegate;
+        switch (rejection) {
+            case CALLER_RUNS:
+                delegate = new ThreadPoolExecutor.CallerRunsPolicy();
+                break;
+            case DISCARD:
+                delegate = (r, e) -> log.warn("线程池{}已满，丢弃任务", name);
+                break;
+            default:
+                delegate = new ThreadPoolExecutor.AbortPolicy();
+        }
+        return (r, e) -> {
+            rejected.increment();
+            delegate.rejectedExecution(r, e);
+        };
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 执行前恢复提交线程的上下文，执行后清理，任务异常记录日志
+     */
+    private static class ContextThreadPoolExecutor extends ThreadPoolExecutor {
+        private final String name;
+
+        ContextThreadPoolExecutor(String name, int threads, int queueCapacity, RejectedExecutionHandler handler) {
+            super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                    threadFactory(name), handler);
+            this.name = name;
+            //空闲的线程池不占用线程
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new ContextTask(command));
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            Runnable task = r instanceof ContextTask ? ((ContextTask) r).command : r;
+            if (t == null && task instanceof Future && ((Future<?>) task).isDone()) {
+                //submit提交的任务异常保存在Future中，调用方不取结果时会被忽略
+                try {
+                    ((Future<?>) task).get();
+                } catch (CancellationException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    t = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (t != null) {
+                log.error("线程池{}中的任务执行失败", name, t);
+            }
+        }
+    }
+
+    /**
+     * 提交时捕获MDC和登录用户，执行时恢复
+     */
+    private static class ContextTask implements Runnable {
+        private final Runnable command;
+        private final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        private final UserDTO user = UserHolder.getUser();
+
+        ContextTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+            UserDTO previousUser = UserHolder.getUser();
+            set(mdc, user);
+            try {
+                command.run();
+            } finally {
+                //CALLER_RUNS时在提交线程中执行，需要恢复原来的上下文
+                set(previousMdc, previousUser);
+            }
+        }
+
+        private static void set(Map<String, String> mdc, UserDTO user) {
+            if (mdc == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(mdc);
+            }
+            if (user == null) {
+                UserHolder.removeUser();
+            } else {
+                UserHolder.saveUser(user);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点key探测：
+ * 每个节点对缓存访问抽样计入count-min sketch，估计值超过候选阈值的key在窗口结束时汇总到redis，
+ * 所有节点读取上一个窗口的全局计数，超过阈值的key提升到本地缓存，冷却后自动降级。
+ * key被删除时通过pub/sub通知所有节点清理本地缓存
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+    /**
+     * 每个节点每个窗口最多上报的候选key数量
+     */
+    private static final int MAX_CANDIDATES = 1024;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final int sampleRate;
+    private final long threshold;
+    private final long windowMillis;
+    private final long candidateThreshold;
+
+    private final CountMinSketch sketch = new CountMinSketch(4, 4096);
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    private final Cache<String, String> localCache;
+    //当前被提升的key和上一个窗口的全局访问量
+    private volatile Map<String, Long> promoted = Collections.emptyMap();
+
+    private final Counter promotions;
+    private final Counter demotions;
+    private final Counter localHits;
+
+    public HotKeyDetector(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry,
+                          @Value("${hmdp.hotkey.sample-rate:4}") int sampleRate,
+                          @Value("${hmdp.hotkey.threshold:1000}") long threshold,
+                          @Value("${hmdp.hotkey.window-millis:5000}") long windowMillis,
+                          @Value("${hmdp.hotkey.local-ttl-seconds:5}") long localTtlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.threshold = threshold;
+        this.windowMillis = windowMillis;
+        //单个节点的抽样计数达到全局阈值的1/16才上报，过滤掉长尾
+        this.candidateThreshold = Math.max(threshold / this.sampleRate / 16, 1);
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(MAX_CANDIDATES)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        this.promotions = Counter.builder("hotkey.promotions").register(meterRegistry);
+        this.demotions = Counter.builder("hotkey.demotions").register(meterRegistry);
+        this.localHits = Counter.builder("hotkey.local.hits").register(meterRegistry);
+        Gauge.builder("hotkey.promoted", this, d -> d.promoted.size()).register(meterRegistry);
+    }
+
+    /**
+     * 记录一次访问，包括本地缓存命中的访问，否则被提升的key会因为计数下降而被误降级
+     */
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long estimate = sketch.add(key);
+        if (estimate >= candidateThreshold && (candidates.size() < MAX_CANDIDATES || candidates.containsKey(key))) {
+            candidates.put(key, estimate);
+        }
+    }
+
+    /**
+     * 读取本地缓存，未被提升或已过期时返回null
+     */
+    public String getLocal(String key) {
+        if (!promoted.containsKey(key)) {
+            return null;
+        }
+        String value = localCache.getIfPresent(key);
+        if (value != null) {
+            localHits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 从redis读取后调用，被提升的key写入本地缓存
+     */
+    public void putLocal(String key, String value) {
+        if (value != null && promoted.containsKey(key)) {
+            localCache.put(key, value);
+        }
+    }
+
+    /**
+     * key更新或删除时清理本节点的本地缓存，其他节点最多读到本地ttl内的旧值
+     */
+    public void invalidate(String key) {
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 清理本节点的本地缓存并广播给其他节点，广播失败时其他节点最多读到本地ttl内的旧值
+     */
+    public void evict(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        keys.forEach(localCache::invalidate);
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_EVICT_CHANNEL, String.join(",", keys));
+        } catch (Exception e) {
+            log.warn("本地缓存失效广播失败，keys:{}", keys, e);
+        }
+    }
+
+    /**
+     * 收到其他节点的失效广播
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        for (String key : new String(message.getBody(), StandardCharsets.UTF_8).split(",")) {
+            localCache.invalidate(key);
+        }
+    }
+
+    public Map<String, Long> getPromoted() {
+        return promoted;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 每个窗口上报本节点的候选key，并根据上一个窗口的全局计数调整提升的key
+     */
+    @Scheduled(fixedRateString = "${hmdp.hotkey.window-millis:5000}")
+    public void rotate() {
+        long window = System.currentTimeMillis() / windowMillis;
+        Map<String, Long> reported = new HashMap<>(candidates);
+        candidates.clear();
+        sketch.reset();
+        try {
+            if (!reported.isEmpty()) {
+                String windowKey = RedisConstants.HOTKEY_KEY + window;
+                long ttl = TimeUnit.MILLISECONDS.toSeconds(windowMillis * 3);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    //按抽样率还原为实际访问量
+                    reported.forEach((key, count) -> conn.zIncrBy(windowKey, count * sampleRate, key));
+                    conn.expire(windowKey, ttl);
+                    return null;
+                });
+            }
+            Set<ZSetOperations.TypedTuple<String>> hot = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(RedisConstants.HOTKEY_KEY + (window - 1), threshold, Double.MAX_VALUE);
+            Map<String, Long> next = new LinkedHashMap<>();
+            if (hot != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : hot) {
+                    next.put(tuple.getValue(), tuple.getScore() == null ? 0L : tuple.getScore().longValue());
+                }
+            }
+            updatePromoted(next);
+        } catch (Exception e) {
+            log.error("热点key统计失败", e);
+        }
+    }
+
+    private void updatePromoted(Map<String, Long> next) {
+        Map<String, Long> previous = promoted;
+        for (String key : next.keySet()) {
+            if (!previous.containsKey(key)) {
+                promotions.increment();
+                log.info("热点key提升到本地缓存，key:{}，访问量:{}", key, next.get(key));
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!next.containsKey(key)) {
+                demotions.increment();
+                localCache.invalidate(key);
+                log.info("热点key降级，key:{}", key);
+            }
+        }
+        promoted = Collections.unmodifiableMap(next);
+    }
+}
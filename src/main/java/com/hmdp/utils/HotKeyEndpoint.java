@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 管理端口上的/actuator/hotkeys，查看当前被提升到本地缓存的热点key
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @ReadOperation
+    public Map<String, Object> hotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("threshold", hotKeyDetector.getThreshold());
+        result.put("promoted", hotKeyDetector.getPromoted());
+        return result;
+    }
+}
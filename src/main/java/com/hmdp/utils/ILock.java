@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+public interface ILock {
+
+    /**
+     * 非阻塞获取锁，获取成功后由看门狗自动续期
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock();
+
+    /**
+     * 在等待时间内尝试获取锁
+     * @param waitTime 最多等待的时间
+     * @param leaseTime 锁的租期，小于0时由看门狗自动续期直到释放
+     * @param unit 时间单位
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 释放锁，只有持有锁的线程才能释放；锁已经过期时只记录日志，不抛出异常
+     */
+    void unlock();
+}
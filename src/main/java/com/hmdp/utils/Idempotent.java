@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记支持幂等请求的接口，请求头带有Idempotency-Key时，
+ * 同一个用户同一个key的重复请求直接返回第一次成功的结果，失败的请求可以用同一个key重试
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Idempotent {
+
+    /**
+     * 结果保留的时间，分钟
+     */
+    long ttlMinutes() default 10;
+}
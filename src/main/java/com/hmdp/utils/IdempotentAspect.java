@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 幂等请求处理：
+ * 第一次请求在redis中占位后执行，成功的结果写回redis，重复请求直接返回保存的结果；
+ * 失败的结果可能是库存紧张、锁竞争等暂时的原因，不保存，删除占位允许客户端用同一个key重试。
+ * 本节点上并发的重复请求等待同一个future，其他节点的重复请求轮询redis等待结果
+ */
+@Slf4j
+@Aspect
+@Component
+public class IdempotentAspect {
+    private static final String PENDING = "PENDING";
+    private static final long WAIT_MILLIS = 5000L;
+    private static final long POLL_MILLIS = 20L;
+    private static final int MAX_KEY_LENGTH = 64;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final Map<String, CompletableFuture<Result>> inflight = new ConcurrentHashMap<>();
+
+    @Around("@annotation(idempotent)")
+    public Object around(ProceedingJoinPoint pjp, Idempotent idempotent) throws Throwable {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return pjp.proceed();
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        String idempotencyKey = request.getHeader(SystemConstants.IDEMPOTENT_HEADER);
+        if (StrUtil.isBlank(idempotencyKey)) {
+            return pjp.proceed();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return Result.fail("Idempotency-Key长度不能超过" + MAX_KEY_LENGTH);
+        }
+        UserDTO user = UserHolder.getUser();
+        String key = RedisConstants.IDEMPOTENT_KEY + (user == null ? "anonymous" : user.getId())
+                + ":" + request.getRequestURI() + ":" + idempotencyKey;
+
+        //本节点已经有相同的请求在执行，等待它的结果
+        CompletableFuture<Result> mine = new CompletableFuture<>();
+        CompletableFuture<Result> running = inflight.putIfAbsent(key, mine);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            Boolean first = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(key, PENDING, idempotent.ttlMinutes(), TimeUnit.MINUTES);
+            if (!Boolean.TRUE.equals(first)) {
+                //已经处理过或者其他节点正在处理
+                Result stored = awaitStored(key);
+                mine.complete(stored);
+                return stored;
+            }
+            Result result;
+            try {
+                result = (Result) pjp.proceed();
+            } catch (Throwable e) {
+                //执行失败，删除占位允许客户端重试
+                stringRedisTemplate.delete(key);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(result), idempotent.ttlMinutes(), TimeUnit.MINUTES);
+            } else {
+                stringRedisTemplate.delete(key);
+            }
+            mine.complete(result);
+            return result;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    private Result await(CompletableFuture<Result> running) throws InterruptedException {
+        try {
+            return running.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return Result.fail("请求处理失败，请重试");
+        } catch (TimeoutException e) {
+            return Result.fail("请求正在处理中，请稍后查询");
+        }
+    }
+
+    private Result awaitStored(String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (true) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            if (value == null) {
+                //第一次请求执行失败，占位已删除
+                return Result.fail("请求处理失败，请重试");
+            }
+            if (!PENDING.equals(value)) {
+                return JSONUtil.toBean(value, Result.class);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return Result.fail("请求正在处理中，请稍后查询");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+}
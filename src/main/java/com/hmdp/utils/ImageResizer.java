@@ -0,0 +1,223 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 图片缩放：
+ * 上传成功后把缩放任务提交到有界线程池，生成ImageVariant中的各个规格，上传请求不等待缩放。
+ * 队列满时直接丢弃任务，缺少的规格在列表中回退为原图。
+ * 缩放完成后把已生成的规格记录到redis，读取时查本地缓存，不再逐个检查文件是否存在
+ */
+@Slf4j
+@Component
+public class ImageResizer {
+    /**
+     * 超过该像素数的图片不解码，避免小文件解压出超大位图
+     */
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    private final ImageStorage imageStorage;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ExecutorService executor;
+    private final Timer resizeTimer;
+    /**
+     * 图片已生成的规格，本节点缩放完成时直接更新，其他情况最多10分钟后从redis重新读取
+     */
+    private final Cache<String, Set<ImageVariant>> readyVariants = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    public ImageResizer(ImageStorage imageStorage, StringRedisTemplate stringRedisTemplate,
+                        MeterRegistry meterRegistry, ExecutorRegistry executorRegistry) {
+        this.imageStorage = imageStorage;
+        this.stringRedisTemplate = stringRedisTemplate;
+        //缩放是CPU密集型任务，线程数不超过核数
+        this.executor = executorRegistry.executor("image-resize", 2, 200, ExecutorRegistry.Rejection.ABORT);
+        this.resizeTimer = meterRegistry.timer("image.resizes");
+    }
+
+    /**
+     * 提交缩放任务，立即返回
+     */
+    public void resizeAsync(String fileName) {
+        try {
+            executor.execute(() -> {
+                try {
+                    resizeTimer.record(() -> resize(fileName));
+                } catch (Exception e) {
+                    log.error("图片缩放失败，{}", fileName, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("缩放队列已满，跳过{}", fileName);
+        }
+    }
+
+    /**
+     * 把逗号分隔的原图地址换成指定规格，外部地址和规格还未生成的保留原图
+     */
+    public String variantsOf(String images, ImageVariant variant) {
+        if (StrUtil.isBlank(images)) {
+            return images;
+        }
+        return Arrays.stream(images.split(","))
+                .map(url -> {
+                    if (!url.startsWith(SystemConstants.IMAGE_URL_PREFIX + "/")) {
+                        return url;
+                    }
+                    String fileName = url.substring(SystemConstants.IMAGE_URL_PREFIX.length());
+                    return readyVariants.get(fileName, this::loadVariants).contains(variant)
+                            ? SystemConstants.IMAGE_URL_PREFIX + variant.nameOf(fileName) : url;
+                })
+                .collect(Collectors.joining(","));
+    }
+
+    private Set<ImageVariant> loadVariants(String fileName) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.IMAGE_VARIANTS_KEY, fileName);
+        if (value == null || StrUtil.isBlank(value.toString())) {
+            return Collections.emptySet();
+        }
+        Set<ImageVariant> variants = EnumSet.noneOf(ImageVariant.class);
+        for (String name : value.toString().split(",")) {
+            try {
+                variants.add(ImageVariant.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                //已经删除的规格
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * 记录缩放完成后实际存在的规格，原图不超过某个规格时不会生成该规格
+     */
+    private void recordVariants(String fileName, Set<ImageVariant> variants) {
+        stringRedisTemplate.opsForHash().put(RedisConstants.IMAGE_VARIANTS_KEY, fileName,
+                variants.stream().map(Enum::name).collect(Collectors.joining(",")));
+        readyVariants.put(fileName, variants);
+    }
+
+    private void resize(String fileName) {
+        Path source = imageStorage.resolve(fileName);
+        String format = StrUtil.subAfter(fileName, ".", true);
+        if (!Files.exists(source) || !ImageIO.getImageWritersBySuffix(format).hasNext()) {
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = read(source);
+        } catch (IOException e) {
+            log.warn("图片无法解码，{}", fileName);
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        Set<ImageVariant> variants = EnumSet.noneOf(ImageVariant.class);
+        for (ImageVariant variant : ImageVariant.values()) {
+            Path target = imageStorage.resolve(variant.nameOf(fileName));
+            //相同内容重复上传时已经生成过
+            if (Files.exists(target)) {
+                variants.add(variant);
+                continue;
+            }
+            //原图不超过该规格时直接使用原图
+            if (Math.max(image.getWidth(), image.getHeight()) <= variant.getMaxEdge()) {
+                continue;
+            }
+            try {
+                if (write(scale(image, variant.getMaxEdge(), format), format, target)) {
+                    variants.add(variant);
+                }
+            } catch (IOException e) {
+                log.error("缩放图片写入失败，{}", target, e);
+            }
+        }
+        recordVariants(fileName, variants);
+    }
+
+    private static BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // 先只读尺寸
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) {
+                    log.warn("图片尺寸过大，跳过缩放，{}", source);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int maxEdge, String format) {
+        double ratio = (double) maxEdge / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        // jpeg不支持透明通道
+        boolean jpeg = "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+        BufferedImage scaled = new BufferedImage(width, height,
+                jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * @return 是否写入成功，没有对应格式的编码器时返回false
+     */
+    private static boolean write(BufferedImage image, String format, Path target) throws IOException {
+        // 先写临时文件再改名，读取方不会看到写了一半的文件
+        Path tmp = Files.createTempFile(target.getParent(), "resize-", ImageStorage.PART_SUFFIX);
+        try {
+            if (!ImageIO.write(image, format, tmp.toFile())) {
+                return false;
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 图片下载：
+ * 支持单段Range、ETag/If-None-Match和Last-Modified/If-Modified-Since，
+ * 大文件交给tomcat的sendfile或FileChannel.transferTo零拷贝发送，
+ * 小文件的热点内容按LRU缓存在直接内存中，命中时不再读盘
+ */
+@Slf4j
+@Component
+public class ImageServer {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ImageStorage imageStorage;
+    private final long maxAgeSeconds;
+    private final long cacheFileBytes;
+    /**
+     * key包含修改时间和大小，文件被替换后旧内容自然淘汰
+     */
+    private final Cache<String, ByteBuffer> hotFiles;
+
+    public ImageServer(ImageStorage imageStorage,
+                       @Value("${hmdp.image.max-age-seconds:86400}") long maxAgeSeconds,
+                       @Value("${hmdp.image.cache-file-bytes:65536}") long cacheFileBytes,
+                       @Value("${hmdp.image.cache-total-bytes:67108864}") long cacheTotalBytes) {
+        this.imageStorage = imageStorage;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.cacheFileBytes = cacheFileBytes;
+        this.hotFiles = Caffeine.newBuilder()
+                .maximumWeight(cacheTotalBytes)
+                .weigher((String k, ByteBuffer v) -> v.capacity())
+                .build();
+    }
+
+    public void serve(String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 只提供/blogs下的图片，上传和缩放中的临时文件不对外
+        if (!imageStorage.isValidName(fileName)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path path = imageStorage.resolve(fileName);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long length = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAgeSeconds);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (notModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        String contentType = request.getServletContext().getMimeType(path.getFileName().toString());
+        response.setContentType(contentType == null ? "application/octet-stream" : contentType);
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplies(request, etag, lastModified)) {
+            long[] parsed = parseRange(range, length);
+            if (parsed == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                end = parsed[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (length <= cacheFileBytes) {
+            ByteBuffer content = hotFiles.get(fileName + "@" + etag, k -> load(path, length));
+            if (content != null) {
+                ByteBuffer slice = content.duplicate();
+                slice.position((int) start).limit((int) (end + 1));
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                while (slice.hasRemaining()) {
+                    out.write(slice);
+                }
+                return;
+            }
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 由tomcat在响应结束后用sendfile直接从文件发送到socket
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            transfer(in, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    /**
+     * 把文件的一段写到目标通道，目标是socket时由内核完成拷贝
+     */
+    static void transfer(FileChannel in, long position, long count, WritableByteChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                // 文件在发送过程中被截断
+                break;
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * @return null表示范围无法满足，长度为0的数组表示忽略Range返回完整内容，否则为[start, end]
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=")) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        if (spec.contains(",")) {
+            // 多段范围较少使用，按规范可以直接返回完整内容
+            return new long[0];
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-N 表示最后N个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0 || start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // 有If-None-Match时忽略If-Modified-Since
+            return "*".equals(ifNoneMatch.trim()) || matches(ifNoneMatch, etag);
+        }
+        long since = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        // http日期只精确到秒
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    private static boolean rangeApplies(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+            return ifRange.trim().equals(etag);
+        }
+        long date = dateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && lastModified / 1000 <= date / 1000;
+    }
+
+    private static boolean matches(String header, String etag) {
+        for (String tag : header.split(",")) {
+            if (StrUtil.removePrefix(tag.trim(), "W/").equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static ByteBuffer load(Path path, long length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && in.read(buffer) != -1) {
+                // 读满为止
+            }
+        } catch (IOException e) {
+            log.warn("图片读取失败，{}", path, e);
+            return null;
+        }
+        if (buffer.hasRemaining()) {
+            // 读取期间文件被替换
+            return null;
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,235 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * 本地图片存储：
+ * 上传内容通过NIO通道边读边计算SHA-256写入临时文件，超过大小限制立即中止，
+ * 以内容哈希命名并保留/blogs/{d1}/{d2}的目录分散，相同内容只保存一份。
+ * 每个文件的引用者（上传的用户）记录在redis的set中，用户只能释放自己的引用，重复释放不影响其他用户，
+ * 没有引用者时删除文件
+ */
+@Slf4j
+@Component
+public class ImageStorage {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern SUFFIX_PATTERN = Pattern.compile("^[a-z0-9]{1,8}$");
+    /**
+     * 对外可见的文件只有/blogs/{d1}/{d2}/{name}.{suffix}，包括旧的uuid文件名和缩放规格
+     */
+    private static final Pattern NAME_PATTERN =
+            Pattern.compile("^/blogs/\\d{1,2}/\\d{1,2}/[A-Za-z0-9_-]+\\.[A-Za-z0-9]{1,8}$");
+    /**
+     * 写入中的临时文件后缀，缩放的临时文件和图片在同一目录
+     */
+    static final String PART_SUFFIX = ".part";
+    /**
+     * 同一个文件的引用计数变更和文件增删串行执行，文件在本地磁盘上，本地锁即可
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    @Getter
+    private final Path root;
+    @Getter
+    private final long maxBytes;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ImageStorage(StringRedisTemplate stringRedisTemplate,
+                        @Value("${hmdp.image.root:./imgs}") String root,
+                        @Value("${hmdp.image.max-bytes:5242880}") long maxBytes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 保存图片，内容相同的图片返回同一个文件名
+     * @param in 上传内容，由调用方关闭
+     * @param originalFilename 原始文件名，只取后缀
+     * @param owner 上传的用户
+     * @return 相对于存储根目录的文件名，如/blogs/3/10/{sha256}.jpg，超过大小限制时返回null
+     */
+    public String store(InputStream in, String originalFilename, Long owner) throws IOException {
+        Staged staged = stage(in);
+        if (staged == null) {
+            return null;
+        }
+        String fileName = fileName(staged.getHash(), suffix(originalFilename));
+        Path target = resolve(fileName);
+        synchronized (lockFor(fileName)) {
+            try {
+                if (Files.exists(target)) {
+                    log.debug("图片已存在，复用{}", fileName);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    move(staged.getPath(), target);
+                }
+                stringRedisTemplate.opsForSet().add(RedisConstants.IMAGE_REFS_KEY + fileName, owner.toString());
+            } finally {
+                Files.deleteIfExists(staged.getPath());
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * 释放用户对文件的引用，没有其他引用者时删除文件。
+     * 不是引用者或者已经释放过时什么也不做
+     * @return 文件是否被删除
+     */
+    public boolean release(String fileName, Long owner) throws IOException {
+        Path target = resolve(fileName);
+        String key = RedisConstants.IMAGE_REFS_KEY + fileName;
+        synchronized (lockFor(fileName)) {
+            Long removed = stringRedisTemplate.opsForSet().remove(key, owner.toString());
+            if (removed == null || removed == 0) {
+                return false;
+            }
+            Long left = stringRedisTemplate.opsForSet().size(key);
+            if (left != null && left > 0) {
+                return false;
+            }
+            for (ImageVariant variant : ImageVariant.values()) {
+                Files.deleteIfExists(resolve(variant.nameOf(fileName)));
+            }
+            stringRedisTemplate.opsForHash().delete(RedisConstants.IMAGE_VARIANTS_KEY, fileName);
+            return Files.deleteIfExists(target);
+        }
+    }
+
+    /**
+     * 把相对文件名解析为存储根目录下的路径，拒绝跳出根目录的文件名
+     */
+    public Path resolve(String fileName) {
+        if (!isValidName(fileName)) {
+            throw new RuntimeException("错误的文件名称");
+        }
+        return root.resolve(StrUtil.removePrefix(fileName, "/")).normalize();
+    }
+
+    /**
+     * 只接受/blogs目录下的图片文件名，拒绝临时文件和tmp目录
+     */
+    public boolean isValidName(String fileName) {
+        if (StrUtil.isBlank(fileName) || !NAME_PATTERN.matcher(fileName).matches()
+                || fileName.toLowerCase().endsWith(PART_SUFFIX)) {
+            return false;
+        }
+        Path path = root.resolve(StrUtil.removePrefix(fileName, "/")).normalize();
+        return path.startsWith(root) && !path.equals(root) && !Files.isDirectory(path);
+    }
+
+    /**
+     * 流式写入临时文件并计算哈希，超过大小限制时删除临时文件并返回null。包可见，便于基准测试
+     */
+    Staged stage(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        Path tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload-", PART_SUFFIX);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long size = 0;
+        try (ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dst = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (src.read(buffer) != -1) {
+                buffer.flip();
+                size += buffer.remaining();
+                if (size > maxBytes) {
+                    break;
+                }
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    dst.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (size > maxBytes) {
+            Files.deleteIfExists(tmp);
+            return null;
+        }
+        return new Staged(tmp, toHex(digest.digest()), size);
+    }
+
+    private Object lockFor(String fileName) {
+        return locks[(fileName.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private static String fileName(String hash, String suffix) {
+        // 沿用原来的两级目录，每级16个
+        int d1 = Character.digit(hash.charAt(0), 16);
+        int d2 = Character.digit(hash.charAt(1), 16);
+        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, hash, suffix);
+    }
+
+    private static String suffix(String originalFilename) {
+        String suffix = StrUtil.subAfter(originalFilename, ".", true).toLowerCase();
+        // 后缀参与拼接路径，只接受字母和数字
+        return SUFFIX_PATTERN.matcher(suffix).matches() ? suffix : "jpg";
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Getter
+    static class Staged {
+        private final Path path;
+        private final String hash;
+        private final long size;
+
+        Staged(Path path, String hash, long size) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+}
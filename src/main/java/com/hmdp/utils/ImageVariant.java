@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+/**
+ * 图片的缩放规格，缩放后的文件和原图放在同一目录，文件名加后缀区分
+ */
+@Getter
+public enum ImageVariant {
+    /**
+     * 列表缩略图
+     */
+    THUMB("_s", 240),
+    /**
+     * 详情页中图
+     */
+    MEDIUM("_m", 800);
+
+    private final String tag;
+    /**
+     * 长边的最大像素
+     */
+    private final int maxEdge;
+
+    ImageVariant(String tag, int maxEdge) {
+        this.tag = tag;
+        this.maxEdge = maxEdge;
+    }
+
+    /**
+     * /blogs/1/2/abc.jpg -> /blogs/1/2/abc_s.jpg
+     */
+    public String nameOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName + tag : fileName.substring(0, dot) + tag + fileName.substring(dot);
+    }
+}
@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记只读的查询接口，方法内的sql优先路由到从库。
+ * 只在没有开启写事务时生效，方法内不能有写操作
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadOnly {
+}
@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+/**
+ * 执行@ReadOnly方法期间把当前线程标记为只读
+ */
+@Aspect
+@Component
+public class ReadOnlyAspect {
+
+    @Around("@annotation(com.hmdp.utils.ReadOnly)")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        Boolean previous = ReplicaRouting.enter();
+        try {
+            return pjp.proceed();
+        } finally {
+            ReplicaRouting.exit(previous);
+        }
+    }
+}
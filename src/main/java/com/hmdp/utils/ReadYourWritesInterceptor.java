@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * 记录当前用户的写操作，之后一段时间内该用户的读请求不走从库
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class ReadYourWritesInterceptor implements Interceptor {
+    private final RoutingDataSource routingDataSource;
+
+    public ReadYourWritesInterceptor(RoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        routingDataSource.markWrite();
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 一批redis操作，execute时一次往返发送，非线程安全，每次使用新建
+ */
+public class RedisBatch {
+    private final RedisBatchClient client;
+    private final List<Op> ops = new ArrayList<>();
+
+    RedisBatch(RedisBatchClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 添加一条命令，每个操作只能发送一条命令，结果才能和操作一一对应
+     */
+    public RedisBatch add(Consumer<StringRedisConnection> command) {
+        ops.add(new Op(command, null, null, null));
+        return this;
+    }
+
+    /**
+     * 添加一次lua脚本调用
+     */
+    public RedisBatch script(RedisScript<?> script, List<String> keys, Object... args) {
+        ops.add(new Op(null, script, keys, args));
+        return this;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * @return 每个操作的结果，顺序和添加顺序一致
+     */
+    public List<Object> execute() {
+        return client.execute(ops);
+    }
+
+    static class Op {
+        final Consumer<StringRedisConnection> command;
+        final RedisScript<?> script;
+        final List<String> keys;
+        final Object[] args;
+
+        Op(Consumer<StringRedisConnection> command, RedisScript<?> script, List<String> keys, Object[] args) {
+            this.command = command;
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+        }
+
+        String[] keysAndArgs() {
+            List<Object> values = new ArrayList<>(keys);
+            values.addAll(Arrays.asList(args));
+            return RedisBatchClient.toStrings(values);
+        }
+
+        String[] args() {
+            return RedisBatchClient.toStrings(Arrays.asList(args));
+        }
+    }
+}
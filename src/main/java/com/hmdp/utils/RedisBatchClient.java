@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * redis批量执行：
+ * 把一次请求中的多条命令和lua脚本收集到RedisBatch中，通过一次管道发送。
+ * 脚本首次使用时SCRIPT LOAD，之后在管道中只发送EVALSHA；redis重启等原因返回NOSCRIPT时，
+ * 只有失败的脚本在管道之外重新执行（没有执行过，重新执行是安全的）
+ */
+@Slf4j
+@Component
+public class RedisBatchClient {
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 已经加载到redis的脚本sha
+     */
+    private final Set<String> loadedScripts = ConcurrentHashMap.newKeySet();
+
+    public RedisBatchClient(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public RedisBatch batch() {
+        return new RedisBatch(this);
+    }
+
+    /**
+     * @return 每个操作的结果，顺序和添加顺序一致
+     */
+    List<Object> execute(List<RedisBatch.Op> ops) {
+        if (ops.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ops.stream().filter(op -> op.script != null).map(op -> op.script).distinct().forEach(this::load);
+        try {
+            return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (RedisBatch.Op op : ops) {
+                    if (op.script == null) {
+                        op.command.accept(conn);
+                    } else {
+                        conn.evalSha(op.script.getSha1(), ReturnType.fromJavaType(op.script.getResultType()),
+                                op.keys.size(), op.keysAndArgs());
+                    }
+                }
+                return null;
+            });
+        } catch (RedisPipelineException e) {
+            return recover(ops, e);
+        }
+    }
+
+    private void load(RedisScript<?> script) {
+        if (loadedScripts.contains(script.getSha1())) {
+            return;
+        }
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        loadedScripts.add(script.getSha1());
+    }
+
+    /**
+     * 管道中有命令失败时，结果没有经过反序列化；NOSCRIPT的脚本单独重新执行，其他错误原样抛出
+     */
+    private List<Object> recover(List<RedisBatch.Op> ops, RedisPipelineException e) {
+        List<Object> raw = e.getPipelineResult();
+        if (raw.size() != ops.size()) {
+            throw e;
+        }
+        List<Object> results = new ArrayList<>(raw.size());
+        for (int i = 0; i < raw.size(); i++) {
+            Object result = raw.get(i);
+            RedisBatch.Op op = ops.get(i);
+            if (result instanceof Exception) {
+                if (op.script == null || !isNoScript((Exception) result)) {
+                    throw e;
+                }
+                loadedScripts.remove(op.script.getSha1());
+                log.info("脚本未加载，重新执行，sha:{}", op.script.getSha1());
+                //template.execute会先EVALSHA，NOSCRIPT时再EVAL
+                results.add(stringRedisTemplate.execute(op.script, op.keys, (Object[]) op.args()));
+            } else {
+                results.add(deserialize(result));
+            }
+        }
+        return results;
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object deserialize(Object value) {
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            ((List<?>) value).forEach(v -> list.add(deserialize(v)));
+            return list;
+        }
+        if (value instanceof Set) {
+            Set<Object> set = new LinkedHashSet<>();
+            ((Set<?>) value).forEach(v -> set.add(deserialize(v)));
+            return set;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> map = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> map.put(deserialize(k), deserialize(v)));
+            return map;
+        }
+        return value;
+    }
+
+    /**
+     * StringRedisTemplate的参数只能是字符串
+     */
+    static String[] toStrings(Collection<?> values) {
+        return values.stream().map(String::valueOf).toArray(String[]::new);
+    }
+}
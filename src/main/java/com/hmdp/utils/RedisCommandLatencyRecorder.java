@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.metrics.CommandLatencyCollector;
+import io.lettuce.core.metrics.CommandLatencyId;
+import io.lettuce.core.metrics.CommandMetrics;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把lettuce每条命令的耗时记录到micrometer，按命令类型打标签，
+ * 替代lettuce自带的依赖HdrHistogram和LatencyUtils的采集器
+ */
+public class RedisCommandLatencyRecorder implements CommandLatencyCollector {
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public RedisCommandLatencyRecorder(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void recordCommandLatency(SocketAddress local, SocketAddress remote, ProtocolKeyword commandType,
+                                     long firstResponseLatency, long completionLatency) {
+        timers.computeIfAbsent(commandType.name(), command -> Timer.builder("redis.commands")
+                .tag("command", command)
+                .register(meterRegistry))
+                .record(completionLatency, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Map<CommandLatencyId, CommandMetrics> retrieveMetrics() {
+        //数据直接由micrometer导出，不通过lettuce的事件总线发布
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -10,12 +10,48 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shoptype:list";
+    public static final String CACHE_INVALIDATION_STREAM = "stream:cache:invalidation";
+    public static final String CACHE_INVALIDATION_GROUP = "g1";
+    public static final String CACHE_EVICT_CHANNEL = "cache:evict";
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final Long CACHE_VOUCHER_SHOP_TTL = 30L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_ORDER_KEY = "lock:order:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_STATE_CHANNEL = "seckill:state";
+    public static final Long SECKILL_PREHEAT_MINUTES = 10L;
+    public static final Long SECKILL_RETAIN_MINUTES = 60L;
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 1440L;
+    public static final String ORDER_USER_KEY = "order:user:";
+    public static final Long ORDER_USER_TTL = 1440L;
+
+    public static final String IDEMPOTENT_KEY = "idempotent:";
+
+    public static final String DELAY_QUEUE_KEY = "delay:";
+    public static final String ORDER_TIMEOUT_TOPIC = "order:timeout";
+
+    public static final String HOTKEY_KEY = "hotkey:";
+
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_COMMENTS_KEY = "blog:comments:";
+    public static final String COMMENT_REPLIES_KEY = "comment:replies:";
+    public static final Long COMMENT_INDEX_TTL = 1440L;
+    public static final String CACHE_COMMENT_KEY = "cache:comment:";
+    public static final Long CACHE_COMMENT_TTL = 30L;
+    public static final String COUNTER_KEY = "counter:";
+    public static final String IMAGE_REFS_KEY = "image:refs:";
+    public static final String IMAGE_VARIANTS_KEY = "image:variants";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
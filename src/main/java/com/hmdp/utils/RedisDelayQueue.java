@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import io.netty.util.HashedWheelTimer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于redis zset的延迟队列，score为到期时间。
+ * 每秒把即将到期的任务领取到本地时间轮中准点触发，触发后的任务攒批交给处理器，
+ * 处理成功后确认，节点宕机导致未确认的任务在租期过后重新投递
+ */
+@Slf4j
+@Component
+public class RedisDelayQueue {
+    /**
+     * 领取未来多久内到期的任务放进本地时间轮
+     */
+    private static final long HORIZON_MILLIS = 5000L;
+    /**
+     * 领取后的租期，超过到期时间这么久还没确认就重新投递
+     */
+    private static final long CLAIM_LEASE_MILLIS = 60000L;
+    private static final int BATCH_SIZE = 100;
+    /**
+     * 每次定时任务最多领取的批数，积压时一秒内领取多批，不再每秒只领取一批
+     */
+    private static final int MAX_ROUNDS = 100;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> RECOVER_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("delay_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+        RECOVER_SCRIPT = new DefaultRedisScript<>();
+        RECOVER_SCRIPT.setLocation(new ClassPathResource("delay_recover.lua"));
+        RECOVER_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectProvider<DelayedTaskHandler> handlers;
+    private final HashedWheelTimer timer = new HashedWheelTimer(r -> {
+        Thread t = new Thread(r, "delay-queue-wheel");
+        t.setDaemon(true);
+        return t;
+    }, 100, TimeUnit.MILLISECONDS, 512);
+    private final Map<String, Queue<String>> fired = new ConcurrentHashMap<>();
+
+    public RedisDelayQueue(StringRedisTemplate stringRedisTemplate, ObjectProvider<DelayedTaskHandler> handlers) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.handlers = handlers;
+    }
+
+    /**
+     * 添加延迟任务，同一个member重复添加会覆盖到期时间
+     */
+    public void offer(String topic, String member, long deadlineMillis) {
+        stringRedisTemplate.opsForZSet().add(queueKey(topic), member, deadlineMillis);
+    }
+
+    /**
+     * 取消延迟任务
+     */
+    public void remove(String topic, String member) {
+        stringRedisTemplate.opsForZSet().remove(queueKey(topic), member);
+        stringRedisTemplate.opsForZSet().remove(claimedKey(topic), member);
+    }
+
+    /**
+     * 领取即将到期的任务放进时间轮，一批领满时继续领取，直到取到不满一批
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void claim() {
+        long now = System.currentTimeMillis();
+        handlers.forEach(handler -> {
+            String topic = handler.topic();
+            try {
+                for (int round = 0; round < MAX_ROUNDS; round++) {
+                    if (claimBatch(topic, now) < BATCH_SIZE) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("延迟任务领取失败，topic:{}", topic, e);
+            }
+        });
+    }
+
+    /**
+     * @return 本批领取的任务数
+     */
+    private int claimBatch(String topic, long now) {
+        List<?> items = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Arrays.asList(queueKey(topic), claimedKey(topic)),
+                String.valueOf(now + HORIZON_MILLIS), String.valueOf(BATCH_SIZE), String.valueOf(CLAIM_LEASE_MILLIS));
+        if (items == null) {
+            return 0;
+        }
+        Queue<String> queue = fired.computeIfAbsent(topic, k -> new ConcurrentLinkedQueue<>());
+        for (int i = 0; i + 1 < items.size(); i += 2) {
+            String member = items.get(i).toString();
+            long deadline = (long) Double.parseDouble(items.get(i + 1).toString());
+            timer.newTimeout(timeout -> queue.offer(member),
+                    Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+        return items.size() / 2;
+    }
+
+    /**
+     * 把已经触发的任务攒批交给处理器
+     */
+    @Scheduled(fixedDelay = 500)
+    public void dispatch() {
+        handlers.forEach(handler -> {
+            String topic = handler.topic();
+            Queue<String> queue = fired.get(topic);
+            if (queue == null) {
+                return;
+            }
+            List<String> batch = new ArrayList<>();
+            String member;
+            while ((member = queue.poll()) != null) {
+                batch.add(member);
+                if (batch.size() >= BATCH_SIZE || queue.isEmpty()) {
+                    handleBatch(handler, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新投递租期已过的任务
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void recover() {
+        handlers.forEach(handler -> {
+            String topic = handler.topic();
+            long total = 0;
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                Long count = stringRedisTemplate.execute(RECOVER_SCRIPT,
+                        Arrays.asList(queueKey(topic), claimedKey(topic)),
+                        String.valueOf(System.currentTimeMillis()), String.valueOf(BATCH_SIZE));
+                total += count == null ? 0 : count;
+                if (count == null || count < BATCH_SIZE) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                log.warn("重新投递未确认的延迟任务，topic:{}，数量:{}", topic, total);
+            }
+        });
+    }
+
+    private void handleBatch(DelayedTaskHandler handler, List<String> batch) {
+        try {
+            handler.handle(batch);
+            //处理成功，确认任务
+            stringRedisTemplate.opsForZSet().remove(claimedKey(handler.topic()), batch.toArray());
+        } catch (Exception e) {
+            log.error("延迟任务处理失败，topic:{}，等待重新投递", handler.topic(), e);
+        }
+    }
+
+    private static String queueKey(String topic) {
+        return RedisConstants.DELAY_QUEUE_KEY + topic;
+    }
+
+    private static String claimedKey(String topic) {
+        return RedisConstants.DELAY_QUEUE_KEY + topic + ":claimed";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.stop();
+    }
+}
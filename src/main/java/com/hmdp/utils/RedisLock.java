@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于redis hash的可重入分布式锁，持有者标识为节点id加线程id
+ */
+public class RedisLock implements ILock {
+    private final String key;
+    private final RedisLockClient client;
+
+    RedisLock(String key, RedisLockClient client) {
+        this.key = key;
+        this.client = client;
+    }
+
+    @Override
+    public boolean tryLock() {
+        return client.acquire(key, owner(), -1) == null;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        long lease = leaseTime < 0 ? -1 : unit.toMillis(leaseTime);
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+        String owner = owner();
+        while (true) {
+            Long ttl = client.acquire(key, owner, lease);
+            if (ttl == null) {
+                return true;
+            }
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0) {
+                return false;
+            }
+            //等待锁过期或被释放，短间隔重试
+            Thread.sleep(Math.max(1, Math.min(Math.min(ttl, remain), 50)));
+        }
+    }
+
+    @Override
+    public void unlock() {
+        client.release(key, owner());
+    }
+
+    private String owner() {
+        return client.getNodeId() + ":" + Thread.currentThread().getId();
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁的创建和看门狗续期
+ */
+@Slf4j
+@Component
+public class RedisLockClient {
+    /**
+     * 看门狗模式下的租期，每过三分之一租期续期一次
+     */
+    private static final long WATCHDOG_LEASE_MILLIS = 30000L;
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    @Getter
+    private final String nodeId = UUID.randomUUID().toString(true);
+    private final Map<String, ScheduledFuture<?>> watchdogs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdogExecutor;
+
+    //加锁成功和因锁被占用而失败的次数，用于观察锁竞争
+    private final Counter acquired;
+    private final Counter contended;
+
+    public RedisLockClient(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry,
+                           ExecutorRegistry executorRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.watchdogExecutor = executorRegistry.scheduler("lock-watchdog", 1);
+        this.acquired = Counter.builder("redis.lock.attempts").tag("result", "acquired").register(meterRegistry);
+        this.contended = Counter.builder("redis.lock.attempts").tag("result", "contended").register(meterRegistry);
+    }
+
+    public ILock getLock(String key) {
+        return new RedisLock(key, this);
+    }
+
+    /**
+     * @return null代表加锁成功，否则为锁的剩余存活时间
+     */
+    Long acquire(String key, String owner, long leaseMillis) {
+        long lease = leaseMillis < 0 ? WATCHDOG_LEASE_MILLIS : leaseMillis;
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key), owner, String.valueOf(lease));
+        (ttl == null ? acquired : contended).increment();
+        if (ttl == null && leaseMillis < 0) {
+            //重入时已经有看门狗了
+            watchdogs.computeIfAbsent(key + "@" + owner, k -> watchdogExecutor.scheduleAtFixedRate(
+                    () -> renew(key, owner), WATCHDOG_LEASE_MILLIS / 3, WATCHDOG_LEASE_MILLIS / 3, TimeUnit.MILLISECONDS));
+        }
+        return ttl;
+    }
+
+    /**
+     * 释放锁，锁已经过期被他人持有或者redis异常时只记录日志，不影响已经完成的业务
+     */
+    void release(String key, String owner) {
+        Long r;
+        try {
+            r = stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), owner);
+        } catch (Exception e) {
+            //停止续期，锁在租期结束后自动释放
+            cancelWatchdog(key, owner);
+            log.error("释放锁失败，等待租期结束自动释放，key:{}", key, e);
+            return;
+        }
+        if (r == null) {
+            cancelWatchdog(key, owner);
+            log.warn("释放锁时锁已经不属于当前线程，可能租期已过，key:{}", key);
+            return;
+        }
+        if (r == 1) {
+            cancelWatchdog(key, owner);
+        }
+    }
+
+    private void renew(String key, String owner) {
+        try {
+            Long r = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key), owner,
+                    String.valueOf(WATCHDOG_LEASE_MILLIS));
+            if (r == null || r == 0) {
+                //锁已经不存在了，停止续期
+                cancelWatchdog(key, owner);
+            }
+        } catch (Exception e) {
+            log.error("锁续期失败，key:{}", key, e);
+        }
+    }
+
+    private void cancelWatchdog(String key, String owner) {
+        ScheduledFuture<?> future = watchdogs.remove(key + "@" + owner);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * redis连接池的借用等待时间和连接数。
+ * lettuce的连接池在第一次使用时才创建，这里在采集时从commons-pool2注册的JMX中读取，多个池取最大值或求和
+ */
+@Slf4j
+public class RedisPoolMetrics implements MeterBinder {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName pattern;
+
+    public RedisPoolMetrics() {
+        try {
+            pattern = new ObjectName("org.apache.commons.pool2:type=GenericObjectPool,*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("redis.pool.borrow.wait.mean", this, m -> m.max("MeanBorrowWaitTimeMillis"))
+                .baseUnit("milliseconds").register(registry);
+        Gauge.builder("redis.pool.borrow.wait.max", this, m -> m.max("MaxBorrowWaitTimeMillis"))
+                .baseUnit("milliseconds").register(registry);
+        Gauge.builder("redis.pool.active", this, m -> m.sum("NumActive")).register(registry);
+        Gauge.builder("redis.pool.idle", this, m -> m.sum("NumIdle")).register(registry);
+        Gauge.builder("redis.pool.waiters", this, m -> m.sum("NumWaiters")).register(registry);
+    }
+
+    private double max(String attribute) {
+        double max = 0;
+        for (ObjectName name : pools()) {
+            max = Math.max(max, read(name, attribute));
+        }
+        return max;
+    }
+
+    private double sum(String attribute) {
+        double sum = 0;
+        for (ObjectName name : pools()) {
+            sum += read(name, attribute);
+        }
+        return sum;
+    }
+
+    private Set<ObjectName> pools() {
+        return server.queryNames(pattern, null);
+    }
+
+    private double read(ObjectName name, String attribute) {
+        try {
+            return ((Number) server.getAttribute(name, attribute)).doubleValue();
+        } catch (Exception e) {
+            //池已经关闭
+            log.debug("读取连接池指标失败，{}:{}", name, attribute);
+            return 0;
+        }
+    }
+}
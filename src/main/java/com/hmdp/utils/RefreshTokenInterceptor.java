@@ -4,44 +4,51 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
 
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisBatchClient redisBatchClient;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(RedisBatchClient redisBatchClient) {
+        this.redisBatchClient = redisBatchClient;
     }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //异步接口返回结果时的再次分派，登录状态在首次分派时已经刷新过
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
         //获取token
         String token = request.getHeader("authorization");
 
         if(StrUtil.isBlank(token)){
             return true;
         }
-        //获取用户
-        Map<Object, Object> map = stringRedisTemplate.opsForHash().entries(RedisConstants.LOGIN_USER_KEY + token);
+        //获取用户并更新Redis中的过期时间，一次往返；token不存在时EXPIRE不生效
+        String key = RedisConstants.LOGIN_USER_KEY + token;
+        List<Object> results = redisBatchClient.batch()
+                .add(conn -> conn.hGetAll(key))
+                .add(conn -> conn.expire(key, TimeUnit.MINUTES.toSeconds(RedisConstants.LOGIN_USER_TTL)))
+                .execute();
+        Map<?, ?> map = (Map<?, ?>) results.get(0);
         //验证用户存在
-        if(map.isEmpty()){
+        if(map == null || map.isEmpty()){
             return true;
         }
         //存入本地
         UserDTO userDTO = BeanUtil.fillBeanWithMap(map, new UserDTO(), false);
         UserHolder.saveUser(userDTO);
-        
-        //更新Redis中的过期时间
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY+token,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         return true;
     }
 
@@ -49,4 +56,12 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
     }
+
+    /**
+     * 异步接口在首次分派结束时不会调用afterCompletion，需要在这里清理，避免tomcat线程残留用户信息
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
 }
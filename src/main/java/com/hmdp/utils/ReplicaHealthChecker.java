@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 从库健康检查：
+ * 定时把当前时间写入主库的心跳表，再从每个从库读出同步过来的时间，两者之差就是复制延迟。
+ * 查询失败、没有心跳或者延迟超过阈值的从库暂停接收读请求，恢复后重新加入
+ */
+@Slf4j
+public class ReplicaHealthChecker {
+    private static final String UPDATE_SQL = "UPDATE tb_replication_heartbeat SET ts = ? WHERE id = 1";
+    private static final String INSERT_SQL = "INSERT INTO tb_replication_heartbeat (id, ts) VALUES (1, ?)";
+    private static final String SELECT_SQL = "SELECT ts FROM tb_replication_heartbeat WHERE id = 1";
+
+    private final RoutingDataSource routingDataSource;
+    private final long maxLagMillis;
+    private final JdbcTemplate primary;
+    private final Map<String, JdbcTemplate> replicas = new HashMap<>();
+    private final Map<String, AtomicLong> lags = new HashMap<>();
+
+    public ReplicaHealthChecker(RoutingDataSource routingDataSource, MeterRegistry meterRegistry, long maxLagMillis) {
+        this.routingDataSource = routingDataSource;
+        this.maxLagMillis = maxLagMillis;
+        this.primary = new JdbcTemplate(routingDataSource.getPrimary());
+        for (Map.Entry<String, DataSource> entry : routingDataSource.getReplicas().entrySet()) {
+            JdbcTemplate template = new JdbcTemplate(entry.getValue());
+            template.setQueryTimeout(1);
+            replicas.put(entry.getKey(), template);
+            AtomicLong lag = new AtomicLong(-1);
+            lags.put(entry.getKey(), lag);
+            Gauge.builder("datasource.replica.lag", lag, AtomicLong::get)
+                    .tag("name", entry.getKey())
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.datasource.health-check-millis:1000}")
+    public void check() {
+        long now = System.currentTimeMillis();
+        try {
+            if (primary.update(UPDATE_SQL, now) == 0) {
+                primary.update(INSERT_SQL, now);
+            }
+        } catch (Exception e) {
+            //主库不可写时心跳不再前进，算出来的延迟没有意义，保持从库的现有状态
+            log.warn("写入复制心跳失败", e);
+            return;
+        }
+        for (Map.Entry<String, JdbcTemplate> entry : replicas.entrySet()) {
+            String name = entry.getKey();
+            long lag;
+            try {
+                List<Long> ts = entry.getValue().queryForList(SELECT_SQL, Long.class);
+                //还没有同步到心跳的从库视为延迟无穷大
+                lag = ts.isEmpty() ? Long.MAX_VALUE : Math.max(now - ts.get(0), 0);
+            } catch (Exception e) {
+                log.warn("从库{}健康检查失败", name, e);
+                lag = Long.MAX_VALUE;
+            }
+            lags.get(name).set(lag == Long.MAX_VALUE ? -1 : lag);
+            routingDataSource.setHealthy(name, lag <= maxLagMillis);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import java.util.function.Supplier;
+
+/**
+ * 当前线程的读写路由标记，由@ReadOnly切面设置，
+ * 同一个类内部调用不经过切面时，直接用readOnly包裹查询
+ */
+public class ReplicaRouting {
+    private static final ThreadLocal<Boolean> tl = new ThreadLocal<>();
+
+    public static boolean isReadOnly() {
+        return Boolean.TRUE.equals(tl.get());
+    }
+
+    public static <T> T readOnly(Supplier<T> query) {
+        Boolean previous = enter();
+        try {
+            return query.get();
+        } finally {
+            exit(previous);
+        }
+    }
+
+    static Boolean enter() {
+        Boolean previous = tl.get();
+        tl.set(Boolean.TRUE);
+        return previous;
+    }
+
+    static void exit(Boolean previous) {
+        //嵌套调用时恢复外层的标记
+        if (previous == null) {
+            tl.remove();
+        } else {
+            tl.set(previous);
+        }
+    }
+}
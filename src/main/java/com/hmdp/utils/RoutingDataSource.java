@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离的数据源：
+ * 只读事务和@ReadOnly标记的查询轮询路由到健康的从库，其余请求、刚写过数据的用户以及从库都不可用时走主库。
+ * 需要配合LazyConnectionDataSourceProxy使用，保证执行第一条sql时事务的只读标记已经设置好。
+ * 写后读的窗口只记录在本节点，多节点部署时同一用户的请求需要落在同一个节点上才能完全保证
+ */
+@Slf4j
+public class RoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+    public static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final List<String> replicaNames;
+    private final Set<String> healthy = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Cache<Long, Boolean> recentWriters;
+    private final Map<String, Counter> routed = new HashMap<>();
+
+    /**
+     * @param rywMillis 用户写入后读请求固定走主库的时间，应大于从库的最大允许延迟
+     */
+    public RoutingDataSource(DataSource primary, Map<String, DataSource> replicas,
+                             MeterRegistry meterRegistry, long rywMillis) {
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableMap(new LinkedHashMap<>(replicas));
+        this.replicaNames = new ArrayList<>(replicas.keySet());
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(rywMillis, TimeUnit.MILLISECONDS)
+                .build();
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        for (Object name : targets.keySet()) {
+            routed.put((String) name, Counter.builder("datasource.routed")
+                    .tag("target", (String) name)
+                    .register(meterRegistry));
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String target = choose();
+        routed.get(target).increment();
+        return target;
+    }
+
+    private String choose() {
+        boolean readOnly = ReplicaRouting.isReadOnly()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        if (!readOnly || replicaNames.isEmpty()) {
+            return PRIMARY;
+        }
+        UserDTO user = UserHolder.getUser();
+        if (user != null && recentWriters.getIfPresent(user.getId()) != null) {
+            //刚写过数据，从库可能还没有同步
+            return PRIMARY;
+        }
+        int size = replicaNames.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            String name = replicaNames.get((start + i) % size);
+            if (healthy.contains(name)) {
+                return name;
+            }
+        }
+        //从库都不可用或者延迟过大，回退到主库
+        return PRIMARY;
+    }
+
+    /**
+     * 当前用户执行了写操作
+     */
+    public void markWrite() {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            recentWriters.put(user.getId(), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 由健康检查更新从库的可用状态，从库初始为不可用，第一次检查通过后才接收读请求
+     */
+    public void setHealthy(String name, boolean ok) {
+        if (!replicas.containsKey(name)) {
+            return;
+        }
+        boolean changed = ok ? healthy.add(name) : healthy.remove(name);
+        if (changed) {
+            log.info("从库{}状态变更为{}", name, ok ? "可用" : "不可用");
+        }
+    }
+
+    public boolean isHealthy(String name) {
+        return healthy.contains(name);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public Map<String, DataSource> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public void close() {
+        List<DataSource> all = new ArrayList<>(replicas.values());
+        all.add(primary);
+        for (DataSource dataSource : all) {
+            if (dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) dataSource).close();
+                } catch (Exception e) {
+                    log.warn("关闭数据源失败", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀券预热调度：
+ * 开始前把库存、起止时间和已购用户写入redis，开始时刻翻转本地open标记，结束后保留ENDED状态直到redis中的数据过期，
+ * 秒杀期间的校验只读本地窗口和redis，不再查询tb_seckill_voucher。
+ * 售罄状态通过redis发布订阅同步到所有节点，售罄后的请求在本地直接拒绝
+ */
+@Slf4j
+@Component
+public class SeckillScheduler implements MessageListener {
+    private static final long ABSENT_TTL_MILLIS = 5000L;
+
+    private static final DefaultRedisScript<Long> SOLD_OUT_SCRIPT;
+    static {
+        SOLD_OUT_SCRIPT = new DefaultRedisScript<>();
+        SOLD_OUT_SCRIPT.setLocation(new ClassPathResource("seckill_state.lua"));
+        SOLD_OUT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private TaskScheduler taskScheduler;
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    /**
+     * 新预热的秒杀券拆分的库存分桶数，1表示不分桶
+     */
+    @Value("${hmdp.seckill.stock-buckets:1}")
+    private int stockBuckets;
+
+    private final Map<Long, SeckillWindow> windows = new ConcurrentHashMap<>();
+    /**
+     * redis和数据库中都没有可售窗口的券，包括不存在的id和开始时间还早的券，
+     * 短时间内的重复请求直接在本地拒绝；其他节点新增的券最多延迟这么久才能在本节点下单
+     */
+    private final Cache<Long, Boolean> absent = Caffeine.newBuilder()
+            .expireAfterWrite(ABSENT_TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .maximumSize(10000)
+            .build();
+
+    /**
+     * 定时扫描即将开始和正在进行的秒杀券
+     * @return 预热成功的秒杀券数量
+     */
+    @Scheduled(fixedDelay = 30000)
+    public int scan() {
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .le("begin_time", now.plusMinutes(RedisConstants.SECKILL_PREHEAT_MINUTES))
+                .gt("end_time", now)
+                .list();
+        int count = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                preheat(voucher);
+                count++;
+            } catch (Exception e) {
+                log.error("秒杀券预热失败，voucherId:{}", voucher.getVoucherId(), e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 预热单张秒杀券，可重复调用
+     */
+    public void preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        long begin = toMillis(voucher.getBeginTime());
+        long end = toMillis(voucher.getEndTime());
+        SeckillWindow window = windows.get(voucherId);
+        if (window != null && window.getBeginMillis() == begin && window.getEndMillis() == end) {
+            //本节点已经预热过
+            return;
+        }
+        String voucherKey = RedisConstants.SECKILL_VOUCHER_KEY + voucherId;
+        //分桶数和库存只由第一个预热的节点写入，避免覆盖已经开始扣减的库存
+        Boolean first = stringRedisTemplate.opsForHash().putIfAbsent(voucherKey, "buckets", String.valueOf(stockBuckets));
+        int buckets = Boolean.TRUE.equals(first) ? stockBuckets
+                : Integer.parseInt(String.valueOf(stringRedisTemplate.opsForHash().get(voucherKey, "buckets")));
+        if (Boolean.TRUE.equals(first)) {
+            seckillStockClient.init(voucherId, buckets, voucher.getStock());
+            loadBuyers(voucherId, buckets);
+        }
+        Map<String, String> info = new HashMap<>();
+        info.put("beginTime", String.valueOf(begin));
+        info.put("endTime", String.valueOf(end));
+        stringRedisTemplate.opsForHash().putAll(voucherKey, info);
+        //结束后保留一段时间再由redis自动清理
+        Date expireAt = new Date(end + TimeUnit.MINUTES.toMillis(RedisConstants.SECKILL_RETAIN_MINUTES));
+        stringRedisTemplate.expireAt(voucherKey, expireAt);
+        for (int i = 0; i < buckets; i++) {
+            stringRedisTemplate.expireAt(SeckillStockClient.stockKey(voucherId, buckets, i), expireAt);
+            stringRedisTemplate.expireAt(SeckillStockClient.orderKey(voucherId, buckets, i), expireAt);
+        }
+
+        window = activate(new SeckillWindow(voucherId, begin, end, buckets));
+        absent.invalidate(voucherId);
+        if (voucher.getStock() <= 0 || "1".equals(stringRedisTemplate.opsForHash().get(voucherKey, "soldOut"))) {
+            window.markSoldOut();
+        }
+        log.debug("秒杀券预热完成，voucherId:{}", voucherId);
+    }
+
+    /**
+     * 获取本地售卖窗口，本节点还未扫描到时从redis补齐，redis中也没有时查询数据库：
+     * 已结束的券返回ENDED状态的窗口，正在进行的券立即预热，其余返回null并在本地缓存一小段时间
+     */
+    public SeckillWindow getWindow(Long voucherId) {
+        SeckillWindow window = windows.get(voucherId);
+        if (window != null) {
+            return window;
+        }
+        if (absent.getIfPresent(voucherId) != null) {
+            return null;
+        }
+        Map<Object, Object> info = stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_VOUCHER_KEY + voucherId);
+        if (info.isEmpty()) {
+            window = loadWindow(voucherId);
+            if (window == null) {
+                absent.put(voucherId, Boolean.TRUE);
+            }
+            return window;
+        }
+        Object beginTime = info.get("beginTime");
+        Object endTime = info.get("endTime");
+        if (beginTime == null || endTime == null) {
+            //预热信息不完整，以数据库为准
+            log.warn("秒杀券预热信息不完整，从数据库重新加载，voucherId:{}", voucherId);
+            window = loadWindow(voucherId);
+            if (window == null) {
+                absent.put(voucherId, Boolean.TRUE);
+            }
+            return window;
+        }
+        long begin = Long.parseLong(beginTime.toString());
+        long end = Long.parseLong(endTime.toString());
+        int buckets = info.containsKey("buckets") ? Integer.parseInt(info.get("buckets").toString()) : 1;
+        window = new SeckillWindow(voucherId, begin, end, buckets);
+        if ("1".equals(info.get("soldOut"))) {
+            window.markSoldOut();
+        }
+        //并发的请求只有一个负责注册定时任务
+        SeckillWindow existing = windows.putIfAbsent(voucherId, window);
+        if (existing != null) {
+            return existing;
+        }
+        schedule(window);
+        return window;
+    }
+
+    /**
+     * 只读本节点的售卖窗口，不访问redis，本节点还没有预热时返回null，结束后保留到redis中的数据过期
+     */
+    public SeckillWindow getLocalWindow(Long voucherId) {
+        return windows.get(voucherId);
+    }
+
+    /**
+     * 库存扣减失败时调用，通知所有节点该券已售罄
+     */
+    public void publishSoldOut(Long voucherId) {
+        SeckillWindow window = windows.get(voucherId);
+        if (window != null && window.isSoldOut()) {
+            //已经同步过，避免售罄后的大量请求重复发布
+            return;
+        }
+        if (window != null) {
+            window.markSoldOut();
+        }
+        updateSoldOut(voucherId, "1");
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_STATE_CHANNEL, voucherId + ":" + SeckillStatus.SOLD_OUT);
+    }
+
+    /**
+     * 库存归还时调用，通知所有节点重新开放
+     */
+    public void publishReopen(Long voucherId) {
+        updateSoldOut(voucherId, "0");
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_STATE_CHANNEL, voucherId + ":" + SeckillStatus.OPEN);
+    }
+
+    /**
+     * 只在预热信息存在时更新售罄标记，不存在时由getWindow从数据库重新加载
+     */
+    private void updateSoldOut(Long voucherId, String soldOut) {
+        stringRedisTemplate.execute(SOLD_OUT_SCRIPT,
+                Collections.singletonList(RedisConstants.SECKILL_VOUCHER_KEY + voucherId), soldOut);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+        if (parts.length != 2) {
+            return;
+        }
+        SeckillWindow window = windows.get(Long.valueOf(parts[0]));
+        if (window == null) {
+            //本节点还没有该券，后续由getWindow从redis读取状态
+            return;
+        }
+        if (SeckillStatus.SOLD_OUT.name().equals(parts[1])) {
+            window.markSoldOut();
+        } else if (SeckillStatus.OPEN.name().equals(parts[1])) {
+            window.reopen();
+        }
+    }
+
+    private SeckillWindow activate(SeckillWindow window) {
+        windows.put(window.getVoucherId(), window);
+        schedule(window);
+        return window;
+    }
+
+    private void schedule(SeckillWindow window) {
+        Long voucherId = window.getVoucherId();
+        long now = System.currentTimeMillis();
+        if (now >= window.getBeginMillis()) {
+            window.open();
+        } else {
+            //在开始时刻准时开放
+            taskScheduler.schedule(window::open, new Date(window.getBeginMillis()));
+        }
+        //结束后保留为ENDED状态，和redis中的数据同时清理，期间的请求不再访问redis
+        taskScheduler.schedule(() -> windows.remove(voucherId, window),
+                new Date(window.getEndMillis() + TimeUnit.MINUTES.toMillis(RedisConstants.SECKILL_RETAIN_MINUTES)));
+    }
+
+    /**
+     * redis中的数据已经过期或者还没有预热，以数据库为准
+     */
+    private SeckillWindow loadWindow(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (!voucher.getEndTime().isAfter(now)) {
+            //已结束的券只在本地记录结束状态，不再写入redis
+            SeckillWindow ended = new SeckillWindow(voucherId, toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime()), 1);
+            SeckillWindow existing = windows.putIfAbsent(voucherId, ended);
+            if (existing != null) {
+                return existing;
+            }
+            taskScheduler.schedule(() -> windows.remove(voucherId, ended),
+                    new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(RedisConstants.SECKILL_RETAIN_MINUTES)));
+            return ended;
+        }
+        if (voucher.getBeginTime().isAfter(now.plusMinutes(RedisConstants.SECKILL_PREHEAT_MINUTES))) {
+            return null;
+        }
+        //定时扫描还没有预热到
+        preheat(voucher);
+        return windows.get(voucherId);
+    }
+
+    private void loadBuyers(Long voucherId, int buckets) {
+        List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id")
+                .eq("voucher_id", voucherId));
+        if (userIds.isEmpty()) {
+            return;
+        }
+        seckillStockClient.addBuyers(voucherId, buckets,
+                userIds.stream().map(id -> Long.valueOf(id.toString())).collect(Collectors.toList()));
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
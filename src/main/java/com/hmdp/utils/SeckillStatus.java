@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 秒杀券在本节点的状态，除OPEN以外的状态都可以直接拒绝请求
+ */
+@Getter
+@AllArgsConstructor
+public enum SeckillStatus {
+    NOT_STARTED("秒杀未开始"),
+    OPEN(null),
+    SOLD_OUT("库存不足"),
+    ENDED("秒杀已结束");
+
+    private final String message;
+}
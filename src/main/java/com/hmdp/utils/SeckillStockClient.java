@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 秒杀库存在redis中的读写。
+ * buckets为1时使用单个库存key；大于1时库存拆分到多个分桶，用户按id哈希固定到一个分桶。
+ * 每个分桶的库存key和已购用户集合使用自己的hash tag {voucherId:bucket}，集群下分散到不同分片，
+ * 同一张券的扣减吞吐随分桶数增长。
+ * 分桶卖空时依次从其他分桶取出一半库存加到本分桶，取出和加入是两次操作：
+ * 中间宕机只会少卖这部分库存，不会超卖；所有分桶都取不到库存且合计为0时才算售罄
+ */
+@Component
+public class SeckillStockClient {
+    public static final int ADMITTED = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int DRAINED = 3;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> REBALANCE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        REBALANCE_SCRIPT = new DefaultRedisScript<>();
+        REBALANCE_SCRIPT.setLocation(new ClassPathResource("seckill_rebalance.lua"));
+        REBALANCE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 批量归还时一次管道最多发送的脚本数
+     */
+    private static final int RELEASE_BATCH_SIZE = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisBatchClient redisBatchClient;
+
+    public SeckillStockClient(StringRedisTemplate stringRedisTemplate, RedisBatchClient redisBatchClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisBatchClient = redisBatchClient;
+    }
+
+    public static String stockKey(Long voucherId, int buckets, int bucket) {
+        if (buckets <= 1) {
+            return RedisConstants.SECKILL_STOCK_KEY + voucherId;
+        }
+        return RedisConstants.SECKILL_STOCK_KEY + bucketTag(voucherId, bucket);
+    }
+
+    public static String orderKey(Long voucherId, int buckets, int bucket) {
+        if (buckets <= 1) {
+            return RedisConstants.SECKILL_ORDER_KEY + voucherId;
+        }
+        return RedisConstants.SECKILL_ORDER_KEY + bucketTag(voucherId, bucket);
+    }
+
+    /**
+     * 同一个分桶的库存和已购集合在同一个slot，扣减脚本可以同时操作两者
+     */
+    private static String bucketTag(Long voucherId, int bucket) {
+        return "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static int bucketOf(Long userId, int buckets) {
+        return buckets <= 1 ? 0 : (int) Math.floorMod(userId, (long) buckets);
+    }
+
+    public static List<String> stockKeys(Long voucherId, int buckets) {
+        List<String> keys = new ArrayList<>(buckets);
+        for (int i = 0; i < Math.max(buckets, 1); i++) {
+            keys.add(stockKey(voucherId, buckets, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 把库存平均写入各分桶，已存在的分桶不覆盖
+     */
+    public void init(Long voucherId, int buckets, int stock) {
+        int n = Math.max(buckets, 1);
+        for (int i = 0; i < n; i++) {
+            int share = stock / n + (i < stock % n ? 1 : 0);
+            stringRedisTemplate.opsForValue().setIfAbsent(stockKey(voucherId, buckets, i), String.valueOf(share));
+        }
+    }
+
+    /**
+     * 按分桶写入已购用户
+     */
+    public void addBuyers(Long voucherId, int buckets, Collection<Long> userIds) {
+        Map<Integer, List<String>> members = new HashMap<>();
+        for (Long userId : userIds) {
+            members.computeIfAbsent(bucketOf(userId, buckets), b -> new ArrayList<>()).add(userId.toString());
+        }
+        members.forEach((bucket, ids) ->
+                stringRedisTemplate.opsForSet().add(orderKey(voucherId, buckets, bucket), ids.toArray(new String[0])));
+    }
+
+    /**
+     * 判断秒杀资格并预扣库存
+     * @return ADMITTED有资格，SOLD_OUT所有分桶都已卖空，DUPLICATE重复下单，DRAINED搬运的库存被抢光，可以重试
+     */
+    public int admit(Long voucherId, int buckets, Long userId) {
+        int bucket = bucketOf(userId, buckets);
+        int code = tryAdmit(voucherId, buckets, bucket, userId);
+        if (code != SOLD_OUT || buckets <= 1) {
+            return code;
+        }
+        //所在分桶卖空，依次从其他分桶搬运库存后重试
+        for (int i = 1; i < buckets; i++) {
+            int source = (bucket + i) % buckets;
+            if (rebalance(voucherId, buckets, source, bucket) <= 0) {
+                continue;
+            }
+            code = tryAdmit(voucherId, buckets, bucket, userId);
+            if (code != SOLD_OUT) {
+                return code;
+            }
+        }
+        //其他请求可能正在搬运，合计还有库存时让用户重试
+        return remaining(voucherId, buckets) > 0 ? DRAINED : SOLD_OUT;
+    }
+
+    /**
+     * 原子地归还用户的购买资格和库存，用于下单失败的补偿和订单取消，重复归还不会多加库存
+     * @param count 归还的库存数量，数据库已经卖完时传0，只归还资格
+     * @return 是否归还，用户不在已购集合中时返回false
+     */
+    public boolean release(Long voucherId, int buckets, Long userId, int count) {
+        int bucket = bucketOf(userId, buckets);
+        Long r = stringRedisTemplate.execute(RELEASE_SCRIPT,
+                Arrays.asList(stockKey(voucherId, buckets, bucket), orderKey(voucherId, buckets, bucket)),
+                userId.toString(), String.valueOf(count));
+        return r != null && r == 1;
+    }
+
+    /**
+     * 批量归还多个用户的资格和各一件库存，用于批量取消订单，每批脚本通过一次管道发送
+     * @return 实际归还的用户数
+     */
+    public int releaseAll(Long voucherId, int buckets, Collection<Long> userIds) {
+        int released = 0;
+        RedisBatch batch = redisBatchClient.batch();
+        for (Long userId : userIds) {
+            int bucket = bucketOf(userId, buckets);
+            batch.script(RELEASE_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, buckets, bucket), orderKey(voucherId, buckets, bucket)),
+                    userId.toString(), "1");
+            if (batch.size() >= RELEASE_BATCH_SIZE) {
+                released += countReleased(batch.execute());
+                batch = redisBatchClient.batch();
+            }
+        }
+        if (batch.size() > 0) {
+            released += countReleased(batch.execute());
+        }
+        return released;
+    }
+
+    private static int countReleased(List<Object> results) {
+        int n = 0;
+        for (Object r : results) {
+            if (r != null && Long.parseLong(r.toString()) == 1) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 剩余库存，各分桶之和
+     */
+    public long remaining(Long voucherId, int buckets) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys(voucherId, buckets));
+        long total = 0;
+        for (String value : values == null ? Collections.<String>emptyList() : values) {
+            if (value != null) {
+                total += Math.max(Long.parseLong(value), 0);
+            }
+        }
+        return total;
+    }
+
+    private int tryAdmit(Long voucherId, int buckets, int bucket, Long userId) {
+        Long r = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(stockKey(voucherId, buckets, bucket), orderKey(voucherId, buckets, bucket)),
+                userId.toString());
+        return r == null ? SOLD_OUT : r.intValue();
+    }
+
+    /**
+     * 从来源分桶取出一半库存加到目标分桶，两个分桶可能在不同分片，不在一个脚本中执行
+     * @return 搬运的数量，0表示来源分桶没有库存
+     */
+    private long rebalance(Long voucherId, int buckets, int source, int target) {
+        Long moved = stringRedisTemplate.execute(REBALANCE_SCRIPT,
+                Collections.singletonList(stockKey(voucherId, buckets, source)));
+        if (moved == null || moved <= 0) {
+            return 0;
+        }
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, buckets, target), moved);
+        return moved;
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+/**
+ * 秒杀券在本节点的售卖窗口，open标记在开始时刻由调度器翻转，
+ * soldOut标记通过redis发布订阅在各节点间同步，下单校验只读本地状态
+ */
+@Getter
+public class SeckillWindow {
+    private final Long voucherId;
+    private final long beginMillis;
+    private final long endMillis;
+    private final int buckets;
+    private volatile boolean open;
+    private volatile boolean soldOut;
+
+    public SeckillWindow(Long voucherId, long beginMillis, long endMillis, int buckets) {
+        this.voucherId = voucherId;
+        this.beginMillis = beginMillis;
+        this.endMillis = endMillis;
+        this.buckets = buckets;
+    }
+
+    public void open() {
+        this.open = true;
+    }
+
+    public void markSoldOut() {
+        this.soldOut = true;
+    }
+
+    public void reopen() {
+        this.soldOut = false;
+    }
+
+    public boolean isEnded() {
+        return System.currentTimeMillis() >= endMillis;
+    }
+
+    public SeckillStatus getStatus() {
+        if (isEnded()) {
+            return SeckillStatus.ENDED;
+        }
+        if (!open) {
+            return SeckillStatus.NOT_STARTED;
+        }
+        return soldOut ? SeckillStatus.SOLD_OUT : SeckillStatus.OPEN;
+    }
+}
@@ -1,8 +1,11 @@
 package com.hmdp.utils;
 
 public class SystemConstants {
-    public static final String IMAGE_UPLOAD_DIR = "D:\\lesson\\nginx-1.18.0\\html\\hmdp\\imgs\\";
+    public static final String IMAGE_URL_PREFIX = "/imgs";
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int COMMENT_PAGE_SIZE = 10;
+    public static final int COMMENT_INLINE_REPLIES = 3;
+    public static final String IDEMPOTENT_HEADER = "Idempotency-Key";
 }
@@ -58,7 +58,9 @@ CREATE TABLE `tb_blog_comments`  (
   `status` tinyint(1) UNSIGNED NULL DEFAULT NULL COMMENT '状态，0：正常，1：被举报，2：禁止查看',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_blog_parent`(`blog_id`, `parent_id`) USING BTREE,
+  INDEX `idx_parent`(`parent_id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
@@ -81,6 +83,16 @@ CREATE TABLE `tb_follow`  (
 -- Records of tb_follow
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_replication_heartbeat
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_replication_heartbeat`;
+CREATE TABLE `tb_replication_heartbeat`  (
+  `id` int(11) NOT NULL COMMENT '主键，只有一行',
+  `ts` bigint(20) NOT NULL COMMENT '主库写入心跳的时间戳，毫秒',
+  PRIMARY KEY (`id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '主从复制延迟检测的心跳' ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_seckill_voucher
 -- ----------------------------
@@ -1274,7 +1286,9 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_user_voucher`(`user_id`, `voucher_id`) USING BTREE,
+  INDEX `idx_voucher`(`voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
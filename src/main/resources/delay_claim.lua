@@ -0,0 +1,9 @@
+-- 领取即将到期的延迟任务，移动到已领取队列，租期内未确认的任务会被重新投递
+-- KEYS[1] 延迟队列  KEYS[2] 已领取队列  ARGV[1] 领取的最大到期时间  ARGV[2] 最多领取数量  ARGV[3] 租期毫秒
+-- 返回 member1, score1, member2, score2 ...
+local items = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, ARGV[2])
+for i = 1, #items, 2 do
+    redis.call('zrem', KEYS[1], items[i])
+    redis.call('zadd', KEYS[2], tonumber(items[i + 1]) + tonumber(ARGV[3]), items[i])
+end
+return items
@@ -0,0 +1,8 @@
+-- 把租期已过仍未确认的任务放回延迟队列，立即到期
+-- KEYS[1] 延迟队列  KEYS[2] 已领取队列  ARGV[1] 当前时间  ARGV[2] 最多处理数量
+local items = redis.call('zrangebyscore', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+for i, member in ipairs(items) do
+    redis.call('zrem', KEYS[2], member)
+    redis.call('zadd', KEYS[1], ARGV[1], member)
+end
+return #items
@@ -0,0 +1,22 @@
+-- 取出并删除计数hash中的一批字段，返回 field1, value1, field2, value2 ...
+-- ARGV[1]: 本批最多取出的字段数，hash较小时HSCAN可能一次返回全部字段
+-- 先HSCAN再写入，需要按命令复制（redis 5之前默认按脚本复制）
+redis.replicate_commands()
+local limit = tonumber(ARGV[1])
+local data = {}
+local fields = {}
+local cursor = '0'
+repeat
+    local res = redis.call('hscan', KEYS[1], cursor, 'count', limit)
+    cursor = res[1]
+    local items = res[2]
+    for i = 1, #items, 2 do
+        fields[#fields + 1] = items[i]
+        data[#data + 1] = items[i]
+        data[#data + 1] = items[i + 1]
+    end
+until cursor == '0' or #fields >= limit
+if #fields > 0 then
+    redis.call('hdel', KEYS[1], unpack(fields))
+end
+return data
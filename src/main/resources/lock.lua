@@ -0,0 +1,10 @@
+-- 可重入锁加锁，锁是一个hash，field为持有者，value为重入次数；lease字段记录最近一次加锁的租期
+-- KEYS[1] 锁key  ARGV[1] 持有者标识  ARGV[2] 租期毫秒
+-- 加锁成功返回nil，否则返回锁的剩余存活时间
+if ((redis.call('exists', KEYS[1]) == 0) or (redis.call('hexists', KEYS[1], ARGV[1]) == 1)) then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('hset', KEYS[1], 'lease', ARGV[2])
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return nil
+end
+return redis.call('pttl', KEYS[1])
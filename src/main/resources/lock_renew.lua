@@ -0,0 +1,7 @@
+-- 看门狗续期，只续期自己持有的锁
+-- KEYS[1] 锁key  ARGV[1] 持有者标识  ARGV[2] 租期毫秒
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
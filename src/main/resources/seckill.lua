@@ -0,0 +1,16 @@
+-- 秒杀资格判断：库存是否充足、用户是否已经下过单
+-- KEYS[1] 库存key  KEYS[2] 已购用户集合key  ARGV[1] 用户id
+-- 返回 0:有资格 1:库存不足 2:重复下单
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    return 1
+end
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+redis.call('incrby', stockKey, -1)
+redis.call('sadd', orderKey, userId)
+return 0
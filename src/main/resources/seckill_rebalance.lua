@@ -0,0 +1,10 @@
+-- 从一个分桶取出一半库存，由调用方加到卖空的分桶。每个分桶在集群中是单独的slot，不能在一个脚本中操作两个分桶
+-- KEYS[1] 来源分桶的库存key
+-- 返回取出的数量，0表示来源分桶也没有库存
+local stock = tonumber(redis.call('get', KEYS[1]) or '0')
+if (stock <= 0) then
+    return 0
+end
+local n = math.floor((stock + 1) / 2)
+redis.call('decrby', KEYS[1], n)
+return n
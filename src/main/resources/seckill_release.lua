@@ -0,0 +1,11 @@
+-- 归还用户的购买资格和库存，用户不在已购集合中时不归还，重复调用不会多加库存
+-- KEYS[1] 库存key  KEYS[2] 已购用户集合key  ARGV[1] 用户id  ARGV[2] 归还的库存数量，0表示只归还资格
+-- 返回 1:已归还 0:用户没有购买资格
+if (redis.call('srem', KEYS[2], ARGV[1]) == 0) then
+    return 0
+end
+local count = tonumber(ARGV[2])
+if (count > 0) then
+    redis.call('incrby', KEYS[1], count)
+end
+return 1
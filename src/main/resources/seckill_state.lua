@@ -0,0 +1,8 @@
+-- 更新秒杀券的售罄标记，预热信息已经过期或被删除时不写入，避免留下缺少时间字段且没有过期时间的hash
+-- KEYS[1] 秒杀券信息hash  ARGV[1] 售罄标记 1:售罄 0:开放
+-- 返回 1:已更新 0:预热信息不存在
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+redis.call('hset', KEYS[1], 'soldOut', ARGV[1])
+return 1
@@ -0,0 +1,41 @@
+-- 裁剪事件流中消费者组已经确认的事件，未投递和未确认的事件不删除
+-- KEYS[1] 事件流  ARGV[1] 消费者组  ARGV[2] 保留的条数  ARGV[3] 本次最多删除的条数
+-- 返回删除的条数
+-- XINFO的结果不是确定的，按命令复制
+redis.replicate_commands()
+local excess = redis.call('xlen', KEYS[1]) - tonumber(ARGV[2])
+if excess <= 0 then
+    return 0
+end
+-- 组内最后投递的id之前的事件要么已确认，要么在pending中
+local boundary
+for _, group in ipairs(redis.call('xinfo', 'groups', KEYS[1])) do
+    local name, last
+    for i = 1, #group, 2 do
+        if group[i] == 'name' then
+            name = group[i + 1]
+        elseif group[i] == 'last-delivered-id' then
+            last = group[i + 1]
+        end
+    end
+    if name == ARGV[1] then
+        boundary = last
+    end
+end
+if not boundary then
+    return 0
+end
+-- 有未确认的事件时只删除最早一条pending之前的事件
+local pending = redis.call('xpending', KEYS[1], ARGV[1])
+if pending[1] > 0 then
+    boundary = pending[2]
+end
+local entries = redis.call('xrange', KEYS[1], '-', boundary, 'COUNT', math.min(excess, tonumber(ARGV[3])))
+local deleted = 0
+for _, entry in ipairs(entries) do
+    -- 边界本身是pending或最后投递的事件，保留
+    if entry[1] ~= boundary then
+        deleted = deleted + redis.call('xdel', KEYS[1], entry[1])
+    end
+end
+return deleted
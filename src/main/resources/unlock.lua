@@ -0,0 +1,17 @@
+-- 可重入锁解锁，只有持有者才能解锁
+-- KEYS[1] 锁key  ARGV[1] 持有者标识
+-- 不是持有者返回nil，还有重入返回0，完全释放返回1
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return nil
+end
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if (count > 0) then
+    -- 按加锁时的租期续期，不改变指定了租期的锁
+    local lease = redis.call('hget', KEYS[1], 'lease')
+    if (lease) then
+        redis.call('pexpire', KEYS[1], lease)
+    end
+    return 0
+end
+redis.call('del', KEYS[1])
+return 1
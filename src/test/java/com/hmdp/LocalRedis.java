@@ -0,0 +1,103 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Assumptions;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * 测试和压测共用的redis：PATH中有redis-server时在随机端口启动一个不落盘的进程，
+ * 否则使用-Dredis.host/-Dredis.port指定的redis，默认localhost:6379，
+ * 使用单独的库（-Dredis.database，默认15），不影响开发环境的数据
+ */
+public final class LocalRedis {
+    private static String host;
+    private static int port;
+
+    private LocalRedis() {
+    }
+
+    /**
+     * 连接测试库，redis不可用时跳过当前测试
+     */
+    public static LettuceConnectionFactory connect() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(host(), port());
+        config.setDatabase(database());
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        try {
+            factory.getConnection().ping();
+        } catch (Exception e) {
+            factory.destroy();
+            Assumptions.assumeTrue(false, "本地redis不可用，跳过测试");
+        }
+        return factory;
+    }
+
+    public static synchronized String host() {
+        start();
+        return host;
+    }
+
+    public static synchronized int port() {
+        start();
+        return port;
+    }
+
+    public static int database() {
+        return Integer.getInteger("redis.database", 15);
+    }
+
+    private static void start() {
+        if (host != null) {
+            return;
+        }
+        host = System.getProperty("redis.host", "localhost");
+        port = Integer.getInteger("redis.port", 6379);
+        if (System.getProperty("redis.port") != null) {
+            return;
+        }
+        try {
+            int free;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                free = socket.getLocalPort();
+            }
+            Process process = new ProcessBuilder("redis-server", "--port", String.valueOf(free),
+                    "--save", "", "--appendonly", "no")
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "hmdp-test-redis.log"))
+                    .start();
+            Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+            waitForPort(free);
+            host = "localhost";
+            port = free;
+        } catch (IOException e) {
+            //没有redis-server，使用已有的redis
+        }
+    }
+
+    private static void waitForPort(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 200);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+}
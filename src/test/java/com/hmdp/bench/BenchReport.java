@@ -0,0 +1,69 @@
+package com.hmdp.bench;
+
+import cn.hutool.json.JSONUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压测结果，打印到控制台并写入target/bench下的json文件，便于回归对比
+ */
+class BenchReport {
+    private final String scenario;
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    BenchReport(String scenario) {
+        this.scenario = scenario;
+        metrics.put("scenario", scenario);
+        metrics.put("timestamp", System.currentTimeMillis());
+    }
+
+    BenchReport put(String name, Object value) {
+        metrics.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param latencies 每个请求的耗时，纳秒
+     * @param elapsedNanos 整体耗时，纳秒
+     */
+    BenchReport latencies(long[] latencies, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        metrics.put("requests", sorted.length);
+        metrics.put("qps", Math.round(sorted.length * 1e9 / elapsedNanos));
+        metrics.put("p50Ms", toMillis(percentile(sorted, 0.50)));
+        metrics.put("p99Ms", toMillis(percentile(sorted, 0.99)));
+        metrics.put("p999Ms", toMillis(percentile(sorted, 0.999)));
+        metrics.put("maxMs", toMillis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+        return this;
+    }
+
+    void write() throws IOException {
+        String json = JSONUtil.toJsonPrettyStr(metrics);
+        System.out.println(json);
+        File dir = new File("target/bench");
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dir, scenario + "-" + metrics.get("timestamp") + ".json");
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
@@ -0,0 +1,126 @@
+package com.hmdp.bench;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.LocalRedis;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 读接口压测：tomcat只保留少量线程，用远多于线程数的并发请求店铺详情、店铺类型、优惠券列表和热门笔记，
+ * 异步接口在等待redis和数据库时不占用tomcat线程，吞吐不受线程数限制。
+ * 运行方式：mvn -P bench test -Dtest=ReadPathBenchmark -Dbench.requests=50000 -Dbench.concurrency=256
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"server.tomcat.threads.max=8", "server.tomcat.max-connections=10000"})
+@ActiveProfiles("bench")
+class ReadPathBenchmark {
+    private static final int REQUESTS = Integer.getInteger("bench.requests", 50000);
+    private static final int CONCURRENCY = Integer.getInteger("bench.concurrency", 256);
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", LocalRedis::host);
+        registry.add("spring.redis.port", LocalRedis::port);
+        registry.add("spring.redis.database", LocalRedis::database);
+    }
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void readPath() throws Exception {
+        List<String> urls = prepareUrls();
+        long[] latencies = new long[REQUESTS];
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong success = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        for (int t = 0; t < CONCURRENCY; t++) {
+            pool.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < REQUESTS) {
+                    long begin = System.nanoTime();
+                    try {
+                        String body = get(urls.get(i % urls.size()));
+                        if (Boolean.TRUE.equals(JSONUtil.parseObj(body).getBool("success"))) {
+                            success.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - begin;
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        new BenchReport("read-path")
+                .put("tomcatThreads", 8)
+                .put("concurrency", CONCURRENCY)
+                .latencies(latencies, elapsed)
+                .put("success", success.get())
+                .put("errors", errors.get())
+                .write();
+        assertEquals(0, errors.get(), "请求失败");
+    }
+
+    private List<String> prepareUrls() {
+        jdbcTemplate.update("INSERT INTO tb_shop_type (name, icon, sort) VALUES ('美食', '/types/ms.png', 1)");
+        jdbcTemplate.update("INSERT INTO tb_shop (name, type_id, images, area, address, x, y) "
+                + "VALUES ('bench', 1, '/imgs/shop.jpg', '大关', '金华路', 120.149192, 30.316078)");
+        Long shopId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM tb_shop", Long.class);
+        jdbcTemplate.update("INSERT INTO tb_voucher (shop_id, title, pay_value, actual_value, type) VALUES (?, 'bench', 100, 200, 0)", shopId);
+        jdbcTemplate.update("INSERT INTO tb_blog (shop_id, user_id, title, images, content, liked, comments) "
+                + "VALUES (?, 1, 'bench', '/imgs/blog.jpg', 'bench', 0, 0)", shopId);
+
+        String base = "http://localhost:" + port;
+        List<String> urls = new ArrayList<>();
+        urls.add(base + "/shop/" + shopId);
+        urls.add(base + "/shop-type/list");
+        urls.add(base + "/voucher/list/" + shopId);
+        urls.add(base + "/blog/hot");
+        return urls;
+    }
+
+    private static String get(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(30000);
+        try (InputStream in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while (in != null && (n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
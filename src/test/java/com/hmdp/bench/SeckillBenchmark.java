@@ -0,0 +1,186 @@
+package com.hmdp.bench;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.LocalRedis;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillScheduler;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 秒杀压测：H2内存库代替MySQL，本地redis进程代替redis，
+ * 每个用户请求两次，统计延迟分位数、QPS、超卖和重复下单数量。
+ * 运行方式：mvn -P bench test -Dbench.users=5000 -Dbench.stock=1000 -Dbench.concurrency=200
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("bench")
+class SeckillBenchmark {
+    private static final int USERS = Integer.getInteger("bench.users", 5000);
+    private static final int STOCK = Integer.getInteger("bench.stock", 1000);
+    private static final int CONCURRENCY = Integer.getInteger("bench.concurrency", 200);
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", LocalRedis::host);
+        registry.add("spring.redis.port", LocalRedis::port);
+        registry.add("spring.redis.database", LocalRedis::database);
+    }
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ISeckillVoucherService seckillVoucherService;
+    @Autowired
+    private SeckillScheduler seckillScheduler;
+
+    @Test
+    void seckill() throws Exception {
+        Long voucherId = prepareVoucher();
+        List<String> tokens = prepareUsers();
+        List<String> requests = new ArrayList<>(tokens);
+        requests.addAll(tokens);
+        Collections.shuffle(requests);
+
+        String url = "http://localhost:" + port + "/voucher-order/seckill/" + voucherId;
+        long[] latencies = new long[requests.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong success = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        for (int t = 0; t < CONCURRENCY; t++) {
+            pool.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests.size()) {
+                    long begin = System.nanoTime();
+                    try {
+                        String body = post(url, requests.get(i));
+                        if (Boolean.TRUE.equals(JSONUtil.parseObj(body).getBool("success"))) {
+                            success.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - begin;
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        long orders = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        long buyers = jdbcTemplate.queryForObject(
+                "SELECT COUNT(DISTINCT user_id) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        int dbStock = jdbcTemplate.queryForObject(
+                "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Integer.class, voucherId);
+        long oversell = Math.max(orders - STOCK, 0) + Math.max(-dbStock, 0);
+        long duplicates = orders - buyers;
+
+        new BenchReport("seckill")
+                .put("users", USERS)
+                .put("stock", STOCK)
+                .put("concurrency", CONCURRENCY)
+                .latencies(latencies, elapsed)
+                .put("success", success.get())
+                .put("errors", errors.get())
+                .put("orders", orders)
+                .put("oversell", oversell)
+                .put("duplicateOrders", duplicates)
+                .write();
+        assertEquals(0, oversell, "超卖");
+        assertEquals(0, duplicates, "重复下单");
+    }
+
+    private Long prepareVoucher() {
+        jdbcTemplate.update("INSERT INTO tb_voucher (shop_id, title, pay_value, actual_value, type) VALUES (1, 'bench', 100, 200, 1)");
+        Long voucherId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM tb_voucher", Long.class);
+        LocalDateTime now = LocalDateTime.now();
+        SeckillVoucher voucher = new SeckillVoucher()
+                .setVoucherId(voucherId)
+                .setStock(STOCK)
+                .setBeginTime(now.minusMinutes(1))
+                .setEndTime(now.plusHours(1));
+        seckillVoucherService.save(voucher);
+        seckillScheduler.preheat(voucher);
+        return voucherId;
+    }
+
+    /**
+     * 直接在redis中写入登录态，用户id每次运行不同，避免复用redis时命中上一次的订单
+     */
+    private List<String> prepareUsers() {
+        long base = System.currentTimeMillis() * 1000;
+        List<String> tokens = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            tokens.add(UUID.randomUUID().toString(true));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < tokens.size(); i++) {
+                Map<String, String> user = new HashMap<>();
+                user.put("id", String.valueOf(base + i));
+                user.put("nickName", "bench_" + i);
+                String key = RedisConstants.LOGIN_USER_KEY + tokens.get(i);
+                conn.hMSet(key, user);
+                conn.expire(key, TimeUnit.HOURS.toSeconds(1));
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    private static String post(String url, String token) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("authorization", token);
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(30000);
+        try (InputStream in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while (in != null && (n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
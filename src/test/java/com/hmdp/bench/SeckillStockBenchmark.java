@@ -0,0 +1,92 @@
+package com.hmdp.bench;
+
+import com.hmdp.LocalRedis;
+import com.hmdp.utils.RedisBatchClient;
+import com.hmdp.utils.SeckillStockClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分桶库存的压测，验证并发抢购和分桶间搬运时不超卖也不少卖，redis不可用时跳过。
+ * 单机redis上所有分桶在同一个线程执行，吞吐随分桶数增长需要在集群上压测（各分桶分散到不同分片）。
+ * 运行方式：mvn -P bench test -Dtest=SeckillStockBenchmark
+ */
+class SeckillStockBenchmark {
+    private static final int STOCK = 20000;
+    private static final int USERS = 40000;
+    private static final int THREADS = 32;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockClient seckillStockClient;
+    private final List<String> keys = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        factory = LocalRedis.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        seckillStockClient = new SeckillStockClient(stringRedisTemplate, new RedisBatchClient(stringRedisTemplate));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            stringRedisTemplate.delete(keys);
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void throughputByBuckets() throws InterruptedException {
+        for (int buckets : new int[]{1, 4, 16}) {
+            long voucherId = System.nanoTime();
+            for (int i = 0; i < buckets; i++) {
+                keys.add(SeckillStockClient.stockKey(voucherId, buckets, i));
+                keys.add(SeckillStockClient.orderKey(voucherId, buckets, i));
+            }
+            seckillStockClient.init(voucherId, buckets, STOCK);
+
+            AtomicLong nextUser = new AtomicLong();
+            AtomicLong admitted = new AtomicLong();
+            AtomicLong rejected = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(THREADS);
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            long start = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                pool.execute(() -> {
+                    long userId;
+                    while ((userId = nextUser.incrementAndGet()) <= USERS) {
+                        int code = seckillStockClient.admit(voucherId, buckets, userId);
+                        if (code == SeckillStockClient.ADMITTED) {
+                            admitted.incrementAndGet();
+                        } else {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                });
+            }
+            done.await(5, TimeUnit.MINUTES);
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+
+            System.out.printf("buckets=%d admitted=%d rejected=%d qps=%.0f%n", buckets, admitted.get(), rejected.get(),
+                    USERS * 1e9 / elapsed);
+            assertEquals(STOCK, admitted.get(), "不能超卖也不能少卖");
+            assertEquals(0, seckillStockClient.remaining(voucherId, buckets));
+        }
+    }
+}
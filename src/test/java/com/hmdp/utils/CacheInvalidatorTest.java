@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import com.hmdp.LocalRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存失效事件流，不需要binlog，需要本地redis（见LocalRedis），连不上时跳过
+ */
+class CacheInvalidatorTest {
+    private static final String STREAM = "test:stream:cache:invalidation";
+    private static final String GROUP = "test";
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private CacheClient cacheClient;
+    private CacheInvalidator cacheInvalidator;
+    private String key;
+
+    @BeforeEach
+    void setUp() {
+        factory = LocalRedis.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cacheClient = new CacheClient(stringRedisTemplate, null, registry,
+                new HotKeyDetector(stringRedisTemplate, registry, 1, 1000, 5000, 5),
+                new ExecutorRegistry(registry, new StandardEnvironment()));
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        cacheInvalidator = newInvalidator();
+        cacheInvalidator.createGroup();
+        key = RedisConstants.CACHE_SHOP_KEY + "test:" + System.nanoTime();
+        stringRedisTemplate.opsForValue().set(key, "stale");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            stringRedisTemplate.delete(Arrays.asList(key, STREAM));
+            taskScheduler.shutdown();
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void deletesOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cacheInvalidator.invalidateAfterCommit(false, key);
+            //提交前不发布
+            drain();
+            assertTrue(stringRedisTemplate.hasKey(key));
+            TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        drain();
+        assertFalse(stringRedisTemplate.hasKey(key));
+    }
+
+    @Test
+    void delayedDoubleDelete() throws InterruptedException {
+        cacheInvalidator.invalidateAfterCommit(true, key);
+        drain();
+        assertFalse(stringRedisTemplate.hasKey(key));
+        //模拟并发读在删除后把旧数据写回缓存
+        stringRedisTemplate.opsForValue().set(key, "stale");
+        Thread.sleep(600);
+        assertFalse(stringRedisTemplate.hasKey(key));
+    }
+
+    @Test
+    void claimsEventsLeftByDeadConsumer() {
+        //另一个实例读到事件后还没确认就下线了
+        CacheInvalidator dead = newInvalidator();
+        stringRedisTemplate.opsForStream().add(STREAM, Collections.singletonMap("keys", key));
+        stringRedisTemplate.opsForStream().read(Consumer.from(GROUP, dead.getConsumerName()),
+                StreamOffset.create(STREAM, ReadOffset.lastConsumed()));
+        drain();
+        assertTrue(stringRedisTemplate.hasKey(key));
+
+        assertEquals(1, cacheInvalidator.claimIdle(Duration.ZERO));
+        drain();
+        assertFalse(stringRedisTemplate.hasKey(key));
+        assertEquals(0, stringRedisTemplate.opsForStream().pending(STREAM, GROUP).getTotalPendingMessages());
+    }
+
+    private CacheInvalidator newInvalidator() {
+        return new CacheInvalidator(stringRedisTemplate, cacheClient, taskScheduler, new SimpleMeterRegistry(),
+                300, 3, STREAM, GROUP);
+    }
+
+    /**
+     * 消费到没有新事件为止
+     */
+    private void drain() {
+        while (cacheInvalidator.consumeOnce(Duration.ofMillis(100)) > 0) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import com.hmdp.LocalRedis;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 管道批量执行和EVALSHA的NOSCRIPT回退，需要本地redis（见LocalRedis），连不上时跳过
+ */
+class RedisBatchClientTest {
+    private static final DefaultRedisScript<Long> INCR_SCRIPT =
+            new DefaultRedisScript<>("return redis.call('incrby', KEYS[1], ARGV[1])", Long.class);
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisBatchClient redisBatchClient;
+    private String key;
+
+    @BeforeEach
+    void setUp() {
+        factory = LocalRedis.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        stringRedisTemplate.afterPropertiesSet();
+        redisBatchClient = new RedisBatchClient(stringRedisTemplate);
+        key = "test:batch:" + System.nanoTime();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            stringRedisTemplate.delete(Arrays.asList(key, key + ":hash"));
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void resultsFollowInsertionOrder() {
+        List<Object> results = redisBatchClient.batch()
+                .add(conn -> conn.set(key, "1"))
+                .add(conn -> conn.hSet(key + ":hash", "f", "v"))
+                .add(conn -> conn.get(key))
+                .add(conn -> conn.hGetAll(key + ":hash"))
+                .script(INCR_SCRIPT, Collections.singletonList(key), 2)
+                .execute();
+        assertEquals(5, results.size());
+        assertEquals("1", results.get(2));
+        assertEquals(Collections.singletonMap("f", "v"), results.get(3));
+        assertEquals(3L, results.get(4));
+    }
+
+    @Test
+    void rerunsScriptsAfterNoScript() {
+        redisBatchClient.batch().script(INCR_SCRIPT, Collections.singletonList(key), 1).execute();
+        //模拟redis重启后脚本缓存丢失，本地仍认为脚本已加载
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptFlush();
+            return null;
+        });
+        List<Object> results = redisBatchClient.batch()
+                .add(conn -> conn.get(key))
+                .script(INCR_SCRIPT, Collections.singletonList(key), 1)
+                .execute();
+        assertEquals("1", results.get(0));
+        assertEquals(2L, results.get(1));
+        assertEquals("2", stringRedisTemplate.opsForValue().get(key));
+    }
+}
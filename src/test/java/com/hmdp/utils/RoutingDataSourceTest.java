@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 读写分离路由，用两个内存h2库分别模拟主库和从库，不需要外部依赖
+ */
+class RoutingDataSourceTest {
+    private static final long MAX_LAG_MILLIS = 1000L;
+    private static final long RYW_MILLIS = 200L;
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private RoutingDataSource routingDataSource;
+    private ReplicaHealthChecker checker;
+    private JdbcTemplate jdbcTemplate;
+    private DataSourceTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = String.valueOf(System.nanoTime());
+        primary = new JdbcTemplate(createDatabase("primary" + suffix, "primary"));
+        replica = new JdbcTemplate(createDatabase("replica" + suffix, "replica"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        routingDataSource = new RoutingDataSource(primary.getDataSource(),
+                Collections.singletonMap("replica-0", replica.getDataSource()), registry, RYW_MILLIS);
+        routingDataSource.afterPropertiesSet();
+        checker = new ReplicaHealthChecker(routingDataSource, registry, MAX_LAG_MILLIS);
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+        primary.execute("SHUTDOWN");
+        replica.execute("SHUTDOWN");
+    }
+
+    @Test
+    void replicaStartsUnhealthyUntilChecked() {
+        assertFalse(routingDataSource.isHealthy("replica-0"));
+        assertEquals("primary", ReplicaRouting.readOnly(this::node));
+
+        replicate();
+        checker.check();
+        assertTrue(routingDataSource.isHealthy("replica-0"));
+        assertEquals("replica", ReplicaRouting.readOnly(this::node));
+    }
+
+    @Test
+    void writesAndUnmarkedReadsStayOnPrimary() {
+        replicate();
+        checker.check();
+        assertEquals("primary", node());
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        assertEquals("primary", tx.execute(status -> node()));
+    }
+
+    @Test
+    void readOnlyTransactionRoutesToReplica() {
+        replicate();
+        checker.check();
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        assertEquals("replica", tx.execute(status -> node()));
+    }
+
+    @Test
+    void laggingReplicaFallsBackToPrimary() {
+        replicate();
+        checker.check();
+        assertEquals("replica", ReplicaRouting.readOnly(this::node));
+
+        //从库停止同步，心跳停留在旧值
+        replica.update("UPDATE tb_replication_heartbeat SET ts = ? WHERE id = 1",
+                System.currentTimeMillis() - MAX_LAG_MILLIS * 2);
+        checker.check();
+        assertFalse(routingDataSource.isHealthy("replica-0"));
+        assertEquals("primary", ReplicaRouting.readOnly(this::node));
+
+        //从库不可用
+        replicate();
+        checker.check();
+        replica.execute("DROP TABLE tb_replication_heartbeat");
+        checker.check();
+        assertEquals("primary", ReplicaRouting.readOnly(this::node));
+    }
+
+    @Test
+    void recentWriterReadsFromPrimary() throws InterruptedException {
+        replicate();
+        checker.check();
+        login(1L);
+        routingDataSource.markWrite();
+        assertEquals("primary", ReplicaRouting.readOnly(this::node));
+
+        //其他用户不受影响
+        login(2L);
+        assertEquals("replica", ReplicaRouting.readOnly(this::node));
+
+        login(1L);
+        Thread.sleep(RYW_MILLIS * 2);
+        assertEquals("replica", ReplicaRouting.readOnly(this::node));
+    }
+
+    private String node() {
+        return jdbcTemplate.queryForObject("SELECT name FROM t_node", String.class);
+    }
+
+    /**
+     * 模拟复制：把主库的心跳同步到从库
+     */
+    private void replicate() {
+        Long ts = primary.queryForList("SELECT ts FROM tb_replication_heartbeat WHERE id = 1", Long.class)
+                .stream().findFirst().orElse(System.currentTimeMillis());
+        if (replica.update("UPDATE tb_replication_heartbeat SET ts = ? WHERE id = 1", ts) == 0) {
+            replica.update("INSERT INTO tb_replication_heartbeat (id, ts) VALUES (1, ?)", ts);
+        }
+    }
+
+    private static void login(Long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+    }
+
+    private static DataSource createDatabase(String db, String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + db + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("CREATE TABLE tb_replication_heartbeat (id INT PRIMARY KEY, ts BIGINT NOT NULL)");
+        template.execute("CREATE TABLE t_node (name VARCHAR(16))");
+        template.update("INSERT INTO t_node VALUES (?)", name);
+        return dataSource;
+    }
+}
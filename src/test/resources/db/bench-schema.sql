@@ -0,0 +1,103 @@
+-- 压测用的H2表结构，与db/hmdp.sql中的表保持一致，去掉了MySQL专有的语法
+CREATE TABLE IF NOT EXISTS tb_user (
+  id bigint NOT NULL AUTO_INCREMENT,
+  phone varchar(11) NOT NULL,
+  password varchar(128) DEFAULT '',
+  nick_name varchar(32) DEFAULT '',
+  icon varchar(255) DEFAULT '',
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE TABLE IF NOT EXISTS tb_user_info (
+  user_id bigint NOT NULL,
+  city varchar(64) DEFAULT '',
+  introduce varchar(128) DEFAULT NULL,
+  fans int DEFAULT 0,
+  followee int DEFAULT 0,
+  gender tinyint DEFAULT 0,
+  birthday date DEFAULT NULL,
+  credits int DEFAULT 0,
+  level tinyint DEFAULT 0,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (user_id)
+);
+CREATE TABLE IF NOT EXISTS tb_shop_type (
+  id bigint NOT NULL AUTO_INCREMENT,
+  name varchar(32) DEFAULT NULL,
+  icon varchar(255) DEFAULT NULL,
+  sort int DEFAULT NULL,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE TABLE IF NOT EXISTS tb_shop (
+  id bigint NOT NULL AUTO_INCREMENT,
+  name varchar(128) NOT NULL,
+  type_id bigint NOT NULL,
+  images varchar(1024) NOT NULL,
+  area varchar(128) DEFAULT NULL,
+  address varchar(255) NOT NULL,
+  x double NOT NULL,
+  y double NOT NULL,
+  avg_price bigint DEFAULT NULL,
+  sold int NOT NULL DEFAULT 0,
+  comments int NOT NULL DEFAULT 0,
+  score int NOT NULL DEFAULT 0,
+  open_hours varchar(32) DEFAULT NULL,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE TABLE IF NOT EXISTS tb_blog (
+  id bigint NOT NULL AUTO_INCREMENT,
+  shop_id bigint NOT NULL,
+  user_id bigint NOT NULL,
+  title varchar(255) NOT NULL,
+  images varchar(2048) NOT NULL,
+  content varchar(2048) NOT NULL,
+  liked int DEFAULT 0,
+  comments int DEFAULT NULL,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE TABLE IF NOT EXISTS tb_voucher (
+  id bigint NOT NULL AUTO_INCREMENT,
+  shop_id bigint DEFAULT NULL,
+  title varchar(255) NOT NULL,
+  sub_title varchar(255) DEFAULT NULL,
+  rules varchar(1024) DEFAULT NULL,
+  pay_value bigint NOT NULL,
+  actual_value bigint NOT NULL,
+  type tinyint NOT NULL DEFAULT 0,
+  status tinyint NOT NULL DEFAULT 1,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE TABLE IF NOT EXISTS tb_seckill_voucher (
+  voucher_id bigint NOT NULL,
+  stock int NOT NULL,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  begin_time timestamp NOT NULL,
+  end_time timestamp NOT NULL,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (voucher_id)
+);
+CREATE TABLE IF NOT EXISTS tb_voucher_order (
+  id bigint NOT NULL,
+  user_id bigint NOT NULL,
+  voucher_id bigint NOT NULL,
+  pay_type tinyint NOT NULL DEFAULT 1,
+  status tinyint NOT NULL DEFAULT 1,
+  create_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  pay_time timestamp DEFAULT NULL,
+  use_time timestamp DEFAULT NULL,
+  refund_time timestamp DEFAULT NULL,
+  update_time timestamp DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE INDEX IF NOT EXISTS idx_user_voucher ON tb_voucher_order (user_id, voucher_id);
+CREATE INDEX IF NOT EXISTS idx_voucher ON tb_voucher_order (voucher_id);